@@ -0,0 +1,115 @@
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.nio.file.*;
+import java.util.*;
+import java.util.function.*;
+
+/**
+ * Allocation Budgets for Stream Hot Paths
+ *
+ * Measures bytes allocated per operation for named hot paths and compares
+ * them against a budgets file (allocation-budgets.properties next to this file).
+ *
+ * Run:    java AllocationBudgets allocation-budgets.properties
+ *         (exits 1 if the file or a hot path's budget is missing, or a budget is exceeded)
+ * Record: java AllocationBudgets allocation-budgets.properties --record
+ *         (rewrites the budgets file; commit it with the change that moved them)
+ *
+ * Allocation is read from the JVM's per-thread counter, so only the calling
+ * thread is measured - parallel streams would under-report and are avoided.
+ */
+public class AllocationBudgets {
+
+    private static final double TOLERANCE = 0.10;
+    private static final int WARMUP = 2_000;
+    private static final int ITERATIONS = 5_000;
+
+    // Keeps results reachable so the JIT cannot eliminate the work
+    private static Object sink;
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1 || args.length > 2 || (args.length == 2 && !"--record".equals(args[1]))) {
+            System.err.println("Usage: java AllocationBudgets <budgets-file> [--record]");
+            System.exit(2);
+        }
+        Path budgetsFile = Paths.get(args[0]);
+        boolean record = args.length == 2;
+
+        Map<String, Supplier<Object>> hotPaths = new LinkedHashMap<>();
+        hotPaths.put("example08.joinNames",
+            () -> StreamsExamples.joinNames(StreamsExamples.employees));
+        hotPaths.put("example09.boxedRange",
+            () -> StreamsExamples.boxedRange(10_000));
+        hotPaths.put("example10.analyzeDepartments",
+            () -> StreamsExamples.analyzeDepartments(StreamsExamples.employees));
+        // The stream().filter().findFirst() lookup pattern from UserController.getUserById
+        hotPaths.put("lookup.streamFilterFindFirst",
+            () -> StreamsExamples.employees.stream()
+                .filter(e -> e.getName().equals("Henry"))
+                .findFirst()
+                .orElse(null));
+
+        Properties budgets = new Properties();
+        if (Files.exists(budgetsFile)) {
+            try (Reader reader = Files.newBufferedReader(budgetsFile)) {
+                budgets.load(reader);
+            }
+        } else if (!record) {
+            // A missing file must not read as "nothing to check"
+            System.err.println("Budgets file not found: " + budgetsFile.toAbsolutePath()
+                + " (create it with --record)");
+            System.exit(1);
+        }
+
+        Properties measured = new Properties();
+        List<String> failures = new ArrayList<>();
+
+        for (Map.Entry<String, Supplier<Object>> hotPath : hotPaths.entrySet()) {
+            String name = hotPath.getKey();
+            long bytesPerOp = measure(hotPath.getValue());
+            measured.setProperty(name, Long.toString(bytesPerOp));
+
+            String budget = budgets.getProperty(name);
+            String verdict;
+            if (budget == null) {
+                verdict = "MISSING budget";
+                failures.add(name + ": no budget in " + budgetsFile + " (record one with --record)");
+            } else {
+                long limit = (long) (Long.parseLong(budget) * (1 + TOLERANCE));
+                verdict = bytesPerOp <= limit ? "ok (budget " + budget + ")" : "OVER budget " + budget;
+                if (bytesPerOp > limit) {
+                    failures.add(name + ": " + bytesPerOp + " B/op > budget " + budget + " B/op");
+                }
+            }
+            System.out.printf("%-32s %10d B/op  %s%n", name, bytesPerOp, verdict);
+        }
+
+        if (record) {
+            try (Writer writer = Files.newBufferedWriter(budgetsFile)) {
+                measured.store(writer, "Bytes allocated per operation (AllocationBudgets --record)");
+            }
+            System.out.println("Budgets written to " + budgetsFile);
+        } else if (!failures.isEmpty()) {
+            failures.forEach(f -> System.err.println("ALLOCATION BUDGET FAILED " + f));
+            System.exit(1);
+        }
+    }
+
+    static long measure(Supplier<Object> operation) {
+        com.sun.management.ThreadMXBean threads =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+        // Warm up so the measurement reflects JIT-compiled code (escape
+        // analysis can remove allocations that the interpreter still makes)
+        for (int i = 0; i < WARMUP; i++) {
+            sink = operation.get();
+        }
+
+        long before = threads.getCurrentThreadAllocatedBytes();
+        for (int i = 0; i < ITERATIONS; i++) {
+            sink = operation.get();
+        }
+        long after = threads.getCurrentThreadAllocatedBytes();
+        return (after - before) / ITERATIONS;
+    }
+}
@@ -38,7 +38,7 @@ public class StreamsExamples {
     }
     
     // Sample employee data
-    private static List<Employee> employees = Arrays.asList(
+    static List<Employee> employees = Arrays.asList(
         new Employee("Alice", "Engineering", 75000, 28),
         new Employee("Bob", "Engineering", 65000, 32),
         new Employee("Charlie", "Marketing", 55000, 26),
@@ -266,13 +266,18 @@ public class StreamsExamples {
             System.out.println("Highest paid: " + emp.getName() + " - $" + String.format("%.0f", emp.getSalary())));
         
         // Custom reduction: concatenate all names
-        String allNames = employees.stream()
-            .map(Employee::getName)
-            .reduce("", (a, b) -> a.isEmpty() ? b : a + ", " + b);
+        String allNames = joinNames(employees);
         System.out.println("All names: " + allNames);
         
         System.out.println();
     }
+    
+    // Hot path tracked in AllocationBudgets ("example08.joinNames")
+    static String joinNames(List<Employee> list) {
+        return list.stream()
+            .map(Employee::getName)
+            .reduce("", (a, b) -> a.isEmpty() ? b : a + ", " + b);
+    }
 
     /**
      * Example 9: Parallel Streams
@@ -282,9 +287,7 @@ public class StreamsExamples {
         System.out.println("📋 Example 9: Parallel Streams");
         
         // Create larger dataset for meaningful parallel processing
-        List<Integer> largeList = IntStream.rangeClosed(1, 1000000)
-            .boxed()
-            .collect(Collectors.toList());
+        List<Integer> largeList = boxedRange(1000000);
         
         // Sequential processing
         long startTime = System.currentTimeMillis();
@@ -308,6 +311,13 @@ public class StreamsExamples {
         
         System.out.println();
     }
+    
+    // Hot path tracked in AllocationBudgets ("example09.boxedRange")
+    static List<Integer> boxedRange(int size) {
+        return IntStream.rangeClosed(1, size)
+            .boxed()
+            .collect(Collectors.toList());
+    }
 
     /**
      * Example 10: Complex Pipeline
@@ -317,7 +327,21 @@ public class StreamsExamples {
         System.out.println("📋 Example 10: Complex Pipeline");
         System.out.println("Department Analysis Report:");
         
-        Map<String, Map<String, Object>> departmentAnalysis = employees.stream()
+        Map<String, Map<String, Object>> departmentAnalysis = analyzeDepartments(employees);
+        
+        departmentAnalysis.forEach((dept, stats) -> {
+            System.out.printf("📊 %s Department:%n", dept);
+            System.out.printf("  - Employees: %d%n", stats.get("count"));
+            System.out.printf("  - Average Salary: $%.0f%n", (Double) stats.get("avgSalary"));
+            System.out.printf("  - Average Age: %.1f years%n", (Double) stats.get("avgAge"));
+            System.out.printf("  - Top Earner: %s%n", stats.get("topEarner"));
+            System.out.println();
+        });
+    }
+    
+    // Hot path tracked in AllocationBudgets ("example10.analyzeDepartments")
+    static Map<String, Map<String, Object>> analyzeDepartments(List<Employee> list) {
+        return list.stream()
             .collect(Collectors.groupingBy(
                 Employee::getDepartment,
                 Collectors.collectingAndThen(
@@ -341,15 +365,6 @@ public class StreamsExamples {
                     }
                 )
             ));
-        
-        departmentAnalysis.forEach((dept, stats) -> {
-            System.out.printf("📊 %s Department:%n", dept);
-            System.out.printf("  - Employees: %d%n", stats.get("count"));
-            System.out.printf("  - Average Salary: $%.0f%n", (Double) stats.get("avgSalary"));
-            System.out.printf("  - Average Age: %.1f years%n", (Double) stats.get("avgAge"));
-            System.out.printf("  - Top Earner: %s%n", stats.get("topEarner"));
-            System.out.println();
-        });
     }
 }
 
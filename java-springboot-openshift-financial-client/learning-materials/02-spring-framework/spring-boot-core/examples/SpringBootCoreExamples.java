@@ -11,7 +11,13 @@
 public class LearningApplication {
     
     public static void main(String[] args) {
-        SpringApplication.run(LearningApplication.class, args);
+        SpringApplication app = new SpringApplication(LearningApplication.class);
+        
+        // Fast-startup mode (see Example 9): app.fast-startup=true from any
+        // property source (-D, --arg, APP_FAST_STARTUP env var, config file)
+        app.addListeners(new FastStartup());
+        
+        app.run(args);
     }
     
     // Custom configuration bean
@@ -32,63 +38,72 @@ public class LearningApplication {
 @RequestMapping("/api/users")
 public class UserController {
     
-    private List<User> users = new ArrayList<>();
-    private Long nextId = 1L;
+    // Durable, in-memory store (see Example 15)
+    private final UserStore users;
+    
+    public UserController(UserStore users) {
+        this.users = users;
+    }
     
     // GET all users
     @GetMapping
-    public List<User> getAllUsers() {
-        return users;
+    public Collection<User> getAllUsers(WebRequest request) {
+        // 304 is answered before the list is serialized
+        if (request.checkNotModified(storeETag())) {
+            return null;
+        }
+        return users.findAll();
     }
     
     // GET user by ID
     @GetMapping("/{id}")
-    public ResponseEntity<User> getUserById(@PathVariable Long id) {
-        User user = users.stream()
-            .filter(u -> u.getId().equals(id))
-            .findFirst()
-            .orElse(null);
-        
-        if (user != null) {
-            return ResponseEntity.ok(user);
-        } else {
+    public ResponseEntity<User> getUserById(@PathVariable Long id, WebRequest request) {
+        User user = users.findById(id);
+        
+        // A missing id is 404 whatever the client's cached tag says
+        if (user == null) {
             return ResponseEntity.notFound().build();
         }
+        if (request.checkNotModified(storeETag())) {
+            return null;
+        }
+        return ResponseEntity.ok(user);
+    }
+    
+    // The store's id plus its last write-ahead-log sequence: survives
+    // restarts and never repeats for different contents. Weak, so Tomcat
+    // still gzips the list (see Example 11)
+    private String storeETag() {
+        return "W/\"users-" + users.getStoreId() + "-" + users.getSequence() + "\"";
     }
     
     // POST - Create new user
     @PostMapping
     public ResponseEntity<User> createUser(@RequestBody User user) {
-        user.setId(nextId++);
-        users.add(user);
+        users.insert(user);
         
         return ResponseEntity.status(HttpStatus.CREATED)
             .location(URI.create("/api/users/" + user.getId()))
             .body(user);
     }
     
-    // PUT - Update user
+    // PUT - Update user, or create it if not found
     @PutMapping("/{id}")
     public ResponseEntity<User> updateUser(@PathVariable Long id, 
                                           @RequestBody User updatedUser) {
-        for (int i = 0; i < users.size(); i++) {
-            if (users.get(i).getId().equals(id)) {
-                updatedUser.setId(id);
-                users.set(i, updatedUser);
-                return ResponseEntity.ok(updatedUser);
-            }
-        }
-        
-        // Create new user if not found
         updatedUser.setId(id);
-        users.add(updatedUser);
+        boolean existed = users.put(updatedUser);
+        
+        if (existed) {
+            return ResponseEntity.ok(updatedUser);
+        }
         return ResponseEntity.status(HttpStatus.CREATED).body(updatedUser);
     }
     
     // DELETE user
     @DeleteMapping("/{id}")
     public ResponseEntity<Void> deleteUser(@PathVariable Long id) {
-        boolean removed = users.removeIf(user -> user.getId().equals(id));
+        boolean removed = users.delete(id);
         
         if (removed) {
             return ResponseEntity.noContent().build();
@@ -251,7 +266,8 @@ public class ProfileConfig {
  */
 
 @Entity
-@Table(name = "employees")
+@Table(name = "employees", indexes = @Index(name = "idx_employees_department", columnList = "department_id"))
+@EntityListeners(AuditEntityListener.class)
 public class Employee {
     
     @Id
@@ -264,7 +280,10 @@ public class Employee {
     @Column(nullable = false, unique = true, length = 100)
     private String email;
     
-    @Column(nullable = false, length = 50)
+    // Stored as an int key into the departments dimension (see Example 17);
+    // queries on e.department still take and return department names
+    @Convert(converter = DepartmentIdConverter.class)
+    @Column(name = "department_id", nullable = false)
     private String department;
     
     @Column(nullable = false)
@@ -279,6 +298,11 @@ public class Employee {
     @Column(name = "updated_at")
     private LocalDateTime updatedAt;
     
+    // Optimistic locking; primitive so Spring Data still decides "new" by id
+    @Version
+    @Column(nullable = false)
+    private long version;
+    
     // JPA lifecycle methods
     @PrePersist
     protected void onCreate() {
@@ -328,11 +352,19 @@ public class Employee {
     
     public LocalDateTime getUpdatedAt() { return updatedAt; }
     public void setUpdatedAt(LocalDateTime updatedAt) { this.updatedAt = updatedAt; }
+    
+    public long getVersion() { return version; }
+    public void setVersion(long version) { this.version = version; }
+    
+    // Last write time, used as the HTTP validator (see Example 11)
+    public LocalDateTime getLastModified() {
+        return updatedAt != null ? updatedAt : createdAt;
+    }
 }
 
 // Repository Interface
 @Repository
-public interface EmployeeRepository extends JpaRepository<Employee, Long> {
+public interface EmployeeRepository extends JpaRepository<Employee, Long>, EmployeeRepositoryCustom {
     
     // Query methods (Spring Data JPA auto-implementation)
     List<Employee> findByDepartment(String department);
@@ -341,12 +373,19 @@ public interface EmployeeRepository extends JpaRepository<Employee, Long> {
     
     List<Employee> findByNameContainingIgnoreCase(String namePattern);
     
+    Optional<Employee> findByEmail(String email);
+    
     @Query("SELECT e FROM Employee e WHERE e.hireDate >= :startDate")
     List<Employee> findEmployeesHiredAfter(@Param("startDate") LocalDate startDate);
     
     @Query("SELECT e.department, AVG(e.salary) FROM Employee e GROUP BY e.department")
     List<Object[]> findAverageSalaryByDepartment();
     
+    // Cheap validator for the whole table: row count, latest write time and
+    // the sum of row versions, which every write (bulk updates included) bumps
+    @Query("SELECT COUNT(e), MAX(COALESCE(e.updatedAt, e.createdAt)), SUM(e.version) FROM Employee e")
+    Object[] findTableValidator();
+    
     // Custom query with pagination
     @Query("SELECT e FROM Employee e WHERE e.salary BETWEEN :minSalary AND :maxSalary")
     Page<Employee> findBySalaryRange(@Param("minSalary") Double minSalary, 
@@ -357,9 +396,11 @@ public interface EmployeeRepository extends JpaRepository<Employee, Long> {
     @Query(value = "SELECT * FROM employees WHERE YEAR(hire_date) = :year", nativeQuery = true)
     List<Employee> findEmployeesHiredInYear(@Param("year") int year);
     
-    // Update query
+    // Update query. Bulk updates skip @Version and @PreUpdate, so both are
+    // bumped here: cached ETags and PATCH version checks must see the raise
     @Modifying
-    @Query("UPDATE Employee e SET e.salary = e.salary * 1.1 WHERE e.department = :department")
+    @Query("UPDATE Employee e SET e.salary = e.salary * 1.1, e.version = e.version + 1, "
+         + "e.updatedAt = CURRENT_TIMESTAMP WHERE e.department = :department")
     int giveDepartmentRaise(@Param("department") String department);
 }
 
@@ -373,10 +414,18 @@ public interface EmployeeRepository extends JpaRepository<Employee, Long> {
 public class EmployeeService {
     
     private final EmployeeRepository employeeRepository;
+    private final AuditJournal auditJournal;
+    private final DepartmentDirectory departments;
+    // For writes that register a department before their transaction opens
+    private final TransactionTemplate writeTransaction;
     private final Logger logger = LoggerFactory.getLogger(EmployeeService.class);
     
-    public EmployeeService(EmployeeRepository employeeRepository) {
+    public EmployeeService(EmployeeRepository employeeRepository, AuditJournal auditJournal,
+                           DepartmentDirectory departments, PlatformTransactionManager transactionManager) {
         this.employeeRepository = employeeRepository;
+        this.auditJournal = auditJournal;
+        this.departments = departments;
+        this.writeTransaction = new TransactionTemplate(transactionManager);
     }
     
     @Transactional(readOnly = true)
@@ -385,6 +434,15 @@ public class EmployeeService {
         return employeeRepository.findAll();
     }
     
+    // Weak ETag for the full employee list, computed without loading rows
+    // (weak so the response can still be gzipped, see Example 11)
+    @Transactional(readOnly = true)
+    public String getEmployeesETag() {
+        Object[] validator = employeeRepository.findTableValidator();
+        Object lastModified = validator[1] != null ? validator[1] : "empty";
+        return "W/\"employees-" + validator[0] + "-" + lastModified + "-" + validator[2] + "\"";
+    }
+    
     @Transactional(readOnly = true)
     public Optional<Employee> getEmployeeById(Long id) {
         logger.debug("Fetching employee with id: {}", id);
@@ -397,40 +455,110 @@ public class EmployeeService {
         return employeeRepository.findByDepartment(department);
     }
     
+    // Writes that can name a department run outside the class-level
+    // transaction: the department is registered first, then the write's own
+    // transaction opens (see registerDepartment)
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
     public Employee createEmployee(Employee employee) {
         logger.info("Creating new employee: {}", employee.getName());
         
         // Business logic validation
         if (employee.getSalary() < 0) {
-            throw new IllegalArgumentException("Salary cannot be negative");
-        }
-        
-        if (employeeRepository.findByEmail(employee.getEmail()).isPresent()) {
-            throw new IllegalArgumentException("Employee with email already exists");
+            throw InvalidEmployeeException.NEGATIVE_SALARY;
         }
         
-        return employeeRepository.save(employee);
+        registerDepartment(employee.getDepartment());
+        return writeTransaction.execute(status -> {
+            if (employeeRepository.findByEmail(employee.getEmail()).isPresent()) {
+                throw InvalidEmployeeException.DUPLICATE_EMAIL;
+            }
+            return employeeRepository.save(employee);
+        });
     }
     
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
     public Employee updateEmployee(Long id, Employee updatedEmployee) {
-        logger.info("Updating employee with id: {}", id);
+        logger.info("Updating employee with id: {} at version {}", id, updatedEmployee.getVersion());
         
-        return employeeRepository.findById(id)
+        registerDepartment(updatedEmployee.getDepartment());
+        return writeTransaction.execute(status -> employeeRepository.findById(id)
             .map(employee -> {
+                // A full replacement is checked like PATCH: the body carries the
+                // version the client read, and Hibernate only compares the
+                // version it loaded, so a stale body must be rejected here
+                if (employee.getVersion() != updatedEmployee.getVersion()) {
+                    throw EmployeeVersionConflictException.INSTANCE;
+                }
+                if (emailTakenByAnother(updatedEmployee.getEmail(), id)) {
+                    throw InvalidEmployeeException.DUPLICATE_EMAIL;
+                }
                 employee.setName(updatedEmployee.getName());
                 employee.setEmail(updatedEmployee.getEmail());
                 employee.setDepartment(updatedEmployee.getDepartment());
                 employee.setSalary(updatedEmployee.getSalary());
                 return employeeRepository.save(employee);
             })
-            .orElseThrow(() -> new EntityNotFoundException("Employee not found with id: " + id));
+            .orElseThrow(() -> EmployeeNotFoundException.INSTANCE));
+    }
+    
+    // Single conditional UPDATE of the changed columns; no read on the happy
+    // path. Returns the new version. See Example 18.
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
+    public long patchEmployee(Long id, EmployeePatch patch) {
+        logger.info("Patching employee with id: {} at version {}", id, patch.getVersion());
+        
+        if (patch.getVersion() == null) {
+            throw InvalidEmployeeException.VERSION_REQUIRED;
+        }
+        if (patch.getSalary() != null && patch.getSalary() < 0) {
+            throw InvalidEmployeeException.NEGATIVE_SALARY;
+        }
+        registerDepartment(patch.getDepartment());
+        
+        return writeTransaction.execute(status -> {
+            // Only a patch that changes the email pays for this read
+            if (patch.getEmail() != null && emailTakenByAnother(patch.getEmail(), id)) {
+                throw InvalidEmployeeException.DUPLICATE_EMAIL;
+            }
+            if (employeeRepository.patch(id, patch.getVersion(), patch) == 0) {
+                // Only the failure path pays for a second query
+                if (!employeeRepository.existsById(id)) {
+                    throw EmployeeNotFoundException.INSTANCE;
+                }
+                throw EmployeeVersionConflictException.INSTANCE;
+            }
+            
+            // Bulk updates bypass entity listeners, so the audit event is explicit
+            long newVersion = patch.getVersion() + 1;
+            auditJournal.appendAfterCommit(new AuditEvent(System.currentTimeMillis(),
+                AuditEvent.Type.UPDATED, id, "patch to v" + newVersion));
+            return newVersion;
+        });
+    }
+    
+    // Same check createEmployee makes; a concurrent write that slips past it
+    // still hits the unique constraint (409, see GlobalExceptionHandler)
+    private boolean emailTakenByAnother(String email, Long id) {
+        return employeeRepository.findByEmail(email)
+            .filter(other -> !other.getId().equals(id))
+            .isPresent();
+    }
+    
+    // DepartmentIdConverter only looks departments up, so every write that can
+    // name a new one registers it first (see Example 17). Called with no
+    // transaction open, so no pooled connection is held while the directory
+    // takes one for its INSERT.
+    private void registerDepartment(String department) {
+        if (department != null) {
+            departments.idOf(department);
+        }
     }
     
     public void deleteEmployee(Long id) {
         logger.info("Deleting employee with id: {}", id);
         
         if (!employeeRepository.existsById(id)) {
-            throw new EntityNotFoundException("Employee not found with id: " + id);
+            throw EmployeeNotFoundException.INSTANCE;
         }
         
         employeeRepository.deleteById(id);
@@ -447,7 +575,15 @@ public class EmployeeService {
     
     public int giveDepartmentRaise(String department) {
         logger.info("Giving 10% raise to all employees in department: {}", department);
-        return employeeRepository.giveDepartmentRaise(department);
+        int raised = employeeRepository.giveDepartmentRaise(department);
+        
+        // Bulk updates bypass entity listeners; one event covers the batch,
+        // with no single employee behind it
+        if (raised > 0) {
+            auditJournal.appendAfterCommit(new AuditEvent(System.currentTimeMillis(),
+                AuditEvent.Type.UPDATED, -1, "raise 10% " + department + " x" + raised));
+        }
+        return raised;
     }
     
     @Transactional(readOnly = true)
@@ -463,6 +599,125 @@ public class EmployeeService {
     }
 }
 
+// REST endpoints backed by EmployeeService
+@RestController
+@RequestMapping("/api/employees")
+public class EmployeeController {
+    
+    private final EmployeeService employeeService;
+    private final EmployeeExportService exportService;
+    private final DepartmentPartialAggregator partialAggregator;
+    private final ScatterGatherCoordinator coordinator;
+    
+    public EmployeeController(EmployeeService employeeService, EmployeeExportService exportService,
+                              DepartmentPartialAggregator partialAggregator,
+                              ScatterGatherCoordinator coordinator) {
+        this.employeeService = employeeService;
+        this.exportService = exportService;
+        this.partialAggregator = partialAggregator;
+        this.coordinator = coordinator;
+    }
+    
+    @GetMapping
+    public List<Employee> getAllEmployees(WebRequest request) {
+        if (request.checkNotModified(employeeService.getEmployeesETag())) {
+            return null;
+        }
+        return employeeService.getAllEmployees();
+    }
+    
+    @GetMapping("/{id}")
+    public ResponseEntity<Employee> getEmployeeById(@PathVariable Long id, WebRequest request) {
+        Optional<Employee> employee = employeeService.getEmployeeById(id);
+        if (employee.isEmpty()) {
+            return ResponseEntity.notFound().build();
+        }
+        
+        // Checks If-None-Match first, then If-Modified-Since
+        LocalDateTime lastModified = employee.get().getLastModified();
+        String eTag = employeeETag(id, employee.get().getVersion());
+        long lastModifiedMillis = lastModified.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+        if (request.checkNotModified(eTag, lastModifiedMillis)) {
+            return null;
+        }
+        return ResponseEntity.ok(employee.get());
+    }
+    
+    @PostMapping
+    public ResponseEntity<Employee> createEmployee(@RequestBody Employee employee) {
+        Employee created = employeeService.createEmployee(employee);
+        return ResponseEntity.status(HttpStatus.CREATED)
+            .location(URI.create("/api/employees/" + created.getId()))
+            .body(created);
+    }
+    
+    // PUT - replaces the editable fields; the body's 'version' must match
+    // the stored one or the update is rejected with 409
+    @PutMapping("/{id}")
+    public Employee updateEmployee(@PathVariable Long id, @RequestBody Employee employee) {
+        return employeeService.updateEmployee(id, employee);
+    }
+    
+    // PATCH - only the fields present in the body change; 'version' must
+    // match the stored one or the update is rejected with 409
+    @PatchMapping("/{id}")
+    public ResponseEntity<Void> patchEmployee(@PathVariable Long id, @RequestBody EmployeePatch patch) {
+        long version = employeeService.patchEmployee(id, patch);
+        return ResponseEntity.noContent()
+            .eTag(employeeETag(id, version))
+            .build();
+    }
+    
+    @DeleteMapping("/{id}")
+    public ResponseEntity<Void> deleteEmployee(@PathVariable Long id) {
+        employeeService.deleteEmployee(id);
+        return ResponseEntity.noContent().build();
+    }
+    
+    private static String employeeETag(Long id, long version) {
+        return "W/\"employee-" + id + "-v" + version + "\"";
+    }
+    
+    @GetMapping("/salary-range")
+    public Page<Employee> getEmployeesBySalaryRange(@RequestParam Double min,
+                                                    @RequestParam Double max,
+                                                    @RequestParam(defaultValue = "0") int page,
+                                                    @RequestParam(defaultValue = "20") int size,
+                                                    @RequestParam(defaultValue = "id") String sortBy) {
+        return employeeService.getEmployeesBySalaryRange(min, max, page, size, sortBy);
+    }
+    
+    @GetMapping("/analytics/average-salary")
+    public Map<String, Double> getAverageSalaryByDepartment() {
+        return employeeService.getAverageSalaryByDepartment();
+    }
+    
+    // This node's mergeable aggregates, fetched by the coordinator (see Example 16)
+    @GetMapping("/analytics/partials")
+    public Map<String, DepartmentPartial> getDepartmentPartials() {
+        return partialAggregator.computePartials();
+    }
+    
+    // Org-wide report merged from every configured node
+    @GetMapping("/analytics/org-report")
+    public OrgDepartmentReport getOrgDepartmentReport() {
+        return coordinator.departmentReport();
+    }
+    
+    // Streams rows to the client as they come off the cursor (see Example 14)
+    @GetMapping("/export")
+    public ResponseEntity<StreamingResponseBody> exportEmployees(
+            EmployeeExportFilter filter,
+            @RequestParam(defaultValue = "CSV") ExportFormat format) {
+        return ResponseEntity.ok()
+            .contentType(format == ExportFormat.CSV 
+                ? MediaType.parseMediaType("text/csv") 
+                : MediaType.APPLICATION_OCTET_STREAM)
+            .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=employees" + format.getExtension())
+            .body(out -> exportService.export(filter, format, out));
+    }
+}
+
 /**
  * Example 7: Exception Handling
  * Learn: @ControllerAdvice, @ExceptionHandler, error responses
@@ -473,27 +728,73 @@ public class GlobalExceptionHandler {
     
     private final Logger logger = LoggerFactory.getLogger(GlobalExceptionHandler.class);
     
+    // Expected misses (404/400) are logged at most a few times per second;
+    // a scanner probing ids should not turn the log into the bottleneck
+    private final SampledLogger clientErrorLog = new SampledLogger(logger, 10);
+    
+    // Constant bodies are serialized once at class load and reused for every hit
+    private static final byte[] NOT_FOUND_BODY = 
+        "{\"code\":\"ENTITY_NOT_FOUND\",\"message\":\"Entity not found\"}"
+            .getBytes(StandardCharsets.UTF_8);
+    
+    private static final byte[] DATA_CONFLICT_BODY = 
+        "{\"code\":\"DATA_CONFLICT\",\"message\":\"Request conflicts with stored data\"}"
+            .getBytes(StandardCharsets.UTF_8);
+    
+    private static final byte[] INTERNAL_ERROR_BODY = 
+        "{\"code\":\"INTERNAL_ERROR\",\"message\":\"An unexpected error occurred\"}"
+            .getBytes(StandardCharsets.UTF_8);
+    
+    // Expected domain failures carry their own status and preserialized body
+    @ExceptionHandler(DomainException.class)
+    public ResponseEntity<byte[]> handleDomainException(DomainException ex) {
+        clientErrorLog.warn("Request rejected: {}", ex.getMessage());
+        
+        return ResponseEntity.status(ex.getStatus())
+            .contentType(MediaType.APPLICATION_JSON)
+            .body(ex.getBody());
+    }
+    
     @ExceptionHandler(EntityNotFoundException.class)
-    public ResponseEntity<ErrorResponse> handleEntityNotFound(EntityNotFoundException ex) {
-        logger.warn("Entity not found: {}", ex.getMessage());
+    public ResponseEntity<byte[]> handleEntityNotFound(EntityNotFoundException ex) {
+        clientErrorLog.warn("Entity not found: {}", ex.getMessage());
         
-        ErrorResponse error = new ErrorResponse(
-            "ENTITY_NOT_FOUND",
-            ex.getMessage(),
-            LocalDateTime.now()
-        );
+        return ResponseEntity.status(HttpStatus.NOT_FOUND)
+            .contentType(MediaType.APPLICATION_JSON)
+            .body(NOT_FOUND_BODY);
+    }
+    
+    // Hibernate's own check on flush answers like the service's version check
+    @ExceptionHandler(ObjectOptimisticLockingFailureException.class)
+    public ResponseEntity<byte[]> handleOptimisticLockingFailure(ObjectOptimisticLockingFailureException ex) {
+        clientErrorLog.warn("Version conflict: {}", ex.getMessage());
+        
+        return ResponseEntity.status(HttpStatus.CONFLICT)
+            .contentType(MediaType.APPLICATION_JSON)
+            .body(EmployeeVersionConflictException.INSTANCE.getBody());
+    }
+    
+    // Constraint violations that passed the service's checks, e.g. two writes
+    // racing for one email: a client conflict, not a server fault worth a trace
+    @ExceptionHandler(DataIntegrityViolationException.class)
+    public ResponseEntity<byte[]> handleDataIntegrityViolation(DataIntegrityViolationException ex) {
+        clientErrorLog.warn("Constraint violated: {}", ex.getMostSpecificCause().getMessage());
         
-        return ResponseEntity.status(HttpStatus.NOT_FOUND).body(error);
+        return ResponseEntity.status(HttpStatus.CONFLICT)
+            .contentType(MediaType.APPLICATION_JSON)
+            .body(DATA_CONFLICT_BODY);
     }
     
+    // Remaining IllegalArgumentExceptions come from framework or unexpected
+    // code; their message varies, so the body is still built per request
     @ExceptionHandler(IllegalArgumentException.class)
     public ResponseEntity<ErrorResponse> handleIllegalArgument(IllegalArgumentException ex) {
-        logger.warn("Invalid argument: {}", ex.getMessage());
+        clientErrorLog.warn("Invalid argument: {}", ex.getMessage());
         
         ErrorResponse error = new ErrorResponse(
             "INVALID_ARGUMENT",
             ex.getMessage(),
-            LocalDateTime.now()
+            CoarseClock.now()
         );
         
         return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(error);
@@ -502,7 +803,7 @@ public class GlobalExceptionHandler {
     @ExceptionHandler(MethodArgumentNotValidException.class)
     public ResponseEntity<ValidationErrorResponse> handleValidationErrors(
             MethodArgumentNotValidException ex) {
-        logger.warn("Validation failed: {}", ex.getMessage());
+        clientErrorLog.warn("Validation failed: {}", ex.getMessage());
         
         List<String> errors = ex.getBindingResult()
             .getFieldErrors()
@@ -514,23 +815,144 @@ public class GlobalExceptionHandler {
             "VALIDATION_FAILED",
             "Request validation failed",
             errors,
-            LocalDateTime.now()
+            CoarseClock.now()
         );
         
         return ResponseEntity.status(HttpStatus.UNPROCESSABLE_ENTITY).body(errorResponse);
     }
     
     @ExceptionHandler(Exception.class)
-    public ResponseEntity<ErrorResponse> handleGenericException(Exception ex) {
+    public ResponseEntity<byte[]> handleGenericException(Exception ex) {
+        // Unexpected failures are always logged in full
         logger.error("Unexpected error occurred", ex);
         
-        ErrorResponse error = new ErrorResponse(
-            "INTERNAL_ERROR",
-            "An unexpected error occurred",
-            LocalDateTime.now()
-        );
+        return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+            .contentType(MediaType.APPLICATION_JSON)
+            .body(INTERNAL_ERROR_BODY);
+    }
+}
+
+// Base for expected domain failures (misses, rejected input). No stack
+// trace and no suppression list, so one immutable instance per failure can
+// be shared and thrown from any thread at about the cost of a return.
+// The JSON body is serialized once, in the constructor.
+public abstract class DomainException extends RuntimeException {
+    
+    private final HttpStatus status;
+    private final byte[] body;
+    
+    protected DomainException(HttpStatus status, String code, String message) {
+        super(message, null, false, false);
+        this.status = status;
+        this.body = ("{\"code\":\"" + code + "\",\"message\":\"" + message + "\"}")
+            .getBytes(StandardCharsets.UTF_8);
+    }
+    
+    public HttpStatus getStatus() { return status; }
+    public byte[] getBody() { return body; }
+}
+
+// The id is already in the request URL and in the service's log line
+public final class EmployeeNotFoundException extends DomainException {
+    
+    public static final EmployeeNotFoundException INSTANCE = new EmployeeNotFoundException();
+    
+    private EmployeeNotFoundException() {
+        super(HttpStatus.NOT_FOUND, "ENTITY_NOT_FOUND", "Employee not found");
+    }
+}
+
+public final class InvalidUserException extends DomainException {
+    
+    public static final InvalidUserException FIELD_TOO_LONG = 
+        new InvalidUserException("User fields are limited to 32767 bytes");
+    
+    private InvalidUserException(String message) {
+        super(HttpStatus.BAD_REQUEST, "INVALID_ARGUMENT", message);
+    }
+}
+
+public final class InvalidEmployeeException extends DomainException {
+    
+    public static final InvalidEmployeeException NEGATIVE_SALARY = 
+        new InvalidEmployeeException("Salary cannot be negative");
+    public static final InvalidEmployeeException DUPLICATE_EMAIL = 
+        new InvalidEmployeeException("Employee with email already exists");
+    public static final InvalidEmployeeException TOO_MANY_DEPARTMENTS = 
+        new InvalidEmployeeException("Department limit reached");
+    public static final InvalidEmployeeException VERSION_REQUIRED = 
+        new InvalidEmployeeException("Version is required for a partial update");
+    
+    private InvalidEmployeeException(String message) {
+        super(HttpStatus.BAD_REQUEST, "INVALID_ARGUMENT", message);
+    }
+}
+
+// Expected under concurrent edits; the id and version the client sent are
+// already in the service's log line
+public final class EmployeeVersionConflictException extends DomainException {
+    
+    public static final EmployeeVersionConflictException INSTANCE = new EmployeeVersionConflictException();
+    
+    private EmployeeVersionConflictException() {
+        super(HttpStatus.CONFLICT, "VERSION_CONFLICT", "Entity was modified concurrently");
+    }
+}
+
+// Error timestamps only need second precision; refreshing the cached value
+// at most once a second keeps LocalDateTime.now() off the error path
+final class CoarseClock {
+    
+    private static volatile LocalDateTime cached = LocalDateTime.now();
+    private static volatile long cachedAtNanos = System.nanoTime();
+    
+    static LocalDateTime now() {
+        long nanos = System.nanoTime();
+        if (nanos - cachedAtNanos >= 1_000_000_000L) {
+            cached = LocalDateTime.now();
+            cachedAtNanos = nanos;
+        }
+        return cached;
+    }
+    
+    private CoarseClock() {}
+}
+
+// Rate-limited logger: lets through at most N messages per second and
+// reports how many were dropped when the next window opens
+public class SampledLogger {
+    
+    private final Logger delegate;
+    private final int maxPerSecond;
+    private final AtomicLong windowStart = new AtomicLong();
+    private final AtomicInteger windowCount = new AtomicInteger();
+    private final AtomicLong suppressed = new AtomicLong();
+    
+    public SampledLogger(Logger delegate, int maxPerSecond) {
+        this.delegate = delegate;
+        this.maxPerSecond = maxPerSecond;
+    }
+    
+    public void warn(String format, Object arg) {
+        if (!delegate.isWarnEnabled()) {
+            return;
+        }
+        
+        long now = System.nanoTime();
+        long start = windowStart.get();
+        if (now - start >= 1_000_000_000L && windowStart.compareAndSet(start, now)) {
+            windowCount.set(0);
+            long dropped = suppressed.getAndSet(0);
+            if (dropped > 0) {
+                delegate.warn("Suppressed {} similar messages in the last window", dropped);
+            }
+        }
         
-        return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(error);
+        if (windowCount.incrementAndGet() <= maxPerSecond) {
+            delegate.warn(format, arg);
+        } else {
+            suppressed.incrementAndGet();
+        }
     }
 }
 
@@ -569,17 +991,2725 @@ public class ValidationErrorResponse extends ErrorResponse {
     public void setErrors(List<String> errors) { this.errors = errors; }
 }
 
+/**
+ * Example 8: Precompiled JSON Serialization
+ * Learn: custom JsonSerializer/JsonDeserializer, Jackson modules, streaming API
+ */
+
+// Registers hand-written codecs once at startup; Jackson then skips
+// reflective bean introspection for these types entirely
+@Configuration
+public class JsonCodecConfig {
+    
+    @Bean
+    public Module dtoCodecModule() {
+        SimpleModule module = new SimpleModule("dto-codecs");
+        module.addSerializer(User.class, new UserCodec.Serializer());
+        module.addDeserializer(User.class, new UserCodec.Deserializer());
+        module.addSerializer(Employee.class, new EmployeeCodec.Serializer());
+        module.addDeserializer(Employee.class, new EmployeeCodec.Deserializer());
+        module.addSerializer(ErrorResponse.class, new ErrorResponseSerializer());
+        return module;
+    }
+}
+
+// Field names are encoded once and written as pre-quoted bytes
+final class JsonFields {
+    static final SerializedString ID = new SerializedString("id");
+    static final SerializedString NAME = new SerializedString("name");
+    static final SerializedString EMAIL = new SerializedString("email");
+    static final SerializedString DEPARTMENT = new SerializedString("department");
+    static final SerializedString SALARY = new SerializedString("salary");
+    static final SerializedString HIRE_DATE = new SerializedString("hireDate");
+    static final SerializedString CREATED_AT = new SerializedString("createdAt");
+    static final SerializedString UPDATED_AT = new SerializedString("updatedAt");
+    static final SerializedString VERSION = new SerializedString("version");
+    static final SerializedString CODE = new SerializedString("code");
+    static final SerializedString MESSAGE = new SerializedString("message");
+    static final SerializedString TIMESTAMP = new SerializedString("timestamp");
+    static final SerializedString ERRORS = new SerializedString("errors");
+    
+    private JsonFields() {}
+}
+
+// ISO-8601 formatting without DateTimeFormatter: digits go straight into
+// a char buffer that is handed to the generator (no intermediate String)
+final class IsoDates {
+    
+    static void writeDate(JsonGenerator gen, LocalDate date) throws IOException {
+        if (date == null) {
+            gen.writeNull();
+            return;
+        }
+        if (!hasFourDigitYear(date.getYear())) {
+            gen.writeString(date.toString());
+            return;
+        }
+        char[] buf = new char[10];
+        putDate(buf, date.getYear(), date.getMonthValue(), date.getDayOfMonth());
+        gen.writeString(buf, 0, buf.length);
+    }
+    
+    // yyyy-MM-ddTHH:mm:ss.SSS - always millisecond precision, unlike Jackson's
+    // default which prints the full nanos and drops trailing zero fields
+    static void writeDateTime(JsonGenerator gen, LocalDateTime time) throws IOException {
+        if (time == null) {
+            gen.writeNull();
+            return;
+        }
+        if (!hasFourDigitYear(time.getYear())) {
+            gen.writeString(time.toString());
+            return;
+        }
+        char[] buf = new char[23];
+        putDate(buf, time.getYear(), time.getMonthValue(), time.getDayOfMonth());
+        buf[10] = 'T';
+        put2(buf, 11, time.getHour());
+        buf[13] = ':';
+        put2(buf, 14, time.getMinute());
+        buf[16] = ':';
+        put2(buf, 17, time.getSecond());
+        buf[19] = '.';
+        int millis = time.getNano() / 1_000_000;
+        buf[20] = (char) ('0' + millis / 100);
+        put2(buf, 21, millis % 100);
+        gen.writeString(buf, 0, buf.length);
+    }
+    
+    // The fixed-width writers below only handle years 0-9999; others (which
+    // ISO prints with a sign) go through toString()
+    static boolean hasFourDigitYear(int year) {
+        return year >= 0 && year <= 9999;
+    }
+    
+    private static void putDate(char[] buf, int year, int month, int day) {
+        put2(buf, 0, year / 100);
+        put2(buf, 2, year % 100);
+        buf[4] = '-';
+        put2(buf, 5, month);
+        buf[7] = '-';
+        put2(buf, 8, day);
+    }
+    
+    private static void put2(char[] buf, int pos, int value) {
+        buf[pos] = (char) ('0' + value / 10);
+        buf[pos + 1] = (char) ('0' + value % 10);
+    }
+    
+    private IsoDates() {}
+}
+
+public final class UserCodec {
+    
+    public static class Serializer extends StdSerializer<User> {
+        public Serializer() { super(User.class); }
+        
+        @Override
+        public void serialize(User user, JsonGenerator gen, SerializerProvider provider) 
+                throws IOException {
+            gen.writeStartObject();
+            gen.writeFieldName(JsonFields.ID);
+            if (user.getId() == null) gen.writeNull(); else gen.writeNumber(user.getId());
+            gen.writeFieldName(JsonFields.NAME);
+            gen.writeString(user.getName());
+            gen.writeFieldName(JsonFields.EMAIL);
+            gen.writeString(user.getEmail());
+            gen.writeFieldName(JsonFields.DEPARTMENT);
+            gen.writeString(user.getDepartment());
+            gen.writeEndObject();
+        }
+    }
+    
+    public static class Deserializer extends StdDeserializer<User> {
+        public Deserializer() { super(User.class); }
+        
+        @Override
+        public User deserialize(JsonParser p, DeserializationContext ctxt) throws IOException {
+            // "[]" or "x" would otherwise come back as an empty user: 400 instead
+            if (!p.isExpectedStartObjectToken()) {
+                return (User) ctxt.handleUnexpectedToken(User.class, p);
+            }
+            User user = new User();
+            String field;
+            while ((field = p.nextFieldName()) != null) {
+                // Objects/arrays are never valid here; skip them whole so their
+                // nested fields are not read as top-level ones
+                if (p.nextToken().isStructStart()) {
+                    p.skipChildren();
+                    continue;
+                }
+                switch (field) {
+                    case "id": user.setId(p.currentToken() == JsonToken.VALUE_NULL ? null : p.getLongValue()); break;
+                    case "name": user.setName(p.getValueAsString()); break;
+                    case "email": user.setEmail(p.getValueAsString()); break;
+                    case "department": user.setDepartment(p.getValueAsString()); break;
+                    default: p.skipChildren();
+                }
+            }
+            return user;
+        }
+    }
+    
+    private UserCodec() {}
+}
+
+public final class EmployeeCodec {
+    
+    public static class Serializer extends StdSerializer<Employee> {
+        public Serializer() { super(Employee.class); }
+        
+        @Override
+        public void serialize(Employee employee, JsonGenerator gen, SerializerProvider provider) 
+                throws IOException {
+            gen.writeStartObject();
+            gen.writeFieldName(JsonFields.ID);
+            if (employee.getId() == null) gen.writeNull(); else gen.writeNumber(employee.getId());
+            gen.writeFieldName(JsonFields.NAME);
+            gen.writeString(employee.getName());
+            gen.writeFieldName(JsonFields.EMAIL);
+            gen.writeString(employee.getEmail());
+            gen.writeFieldName(JsonFields.DEPARTMENT);
+            gen.writeString(employee.getDepartment());
+            gen.writeFieldName(JsonFields.SALARY);
+            if (employee.getSalary() == null) gen.writeNull(); else gen.writeNumber(employee.getSalary());
+            gen.writeFieldName(JsonFields.HIRE_DATE);
+            IsoDates.writeDate(gen, employee.getHireDate());
+            gen.writeFieldName(JsonFields.CREATED_AT);
+            IsoDates.writeDateTime(gen, employee.getCreatedAt());
+            gen.writeFieldName(JsonFields.UPDATED_AT);
+            IsoDates.writeDateTime(gen, employee.getUpdatedAt());
+            gen.writeFieldName(JsonFields.VERSION);
+            gen.writeNumber(employee.getVersion());
+            gen.writeEndObject();
+        }
+    }
+    
+    // Only client-writable fields are read; audit timestamps are server-owned
+    public static class Deserializer extends StdDeserializer<Employee> {
+        public Deserializer() { super(Employee.class); }
+        
+        @Override
+        public Employee deserialize(JsonParser p, DeserializationContext ctxt) throws IOException {
+            if (!p.isExpectedStartObjectToken()) {
+                return (Employee) ctxt.handleUnexpectedToken(Employee.class, p);
+            }
+            Employee employee = new Employee();
+            String field;
+            while ((field = p.nextFieldName()) != null) {
+                JsonToken token = p.nextToken();
+                if (token.isStructStart()) {
+                    p.skipChildren();
+                    continue;
+                }
+                boolean isNull = token == JsonToken.VALUE_NULL;
+                switch (field) {
+                    case "id": employee.setId(isNull ? null : p.getLongValue()); break;
+                    case "name": employee.setName(p.getValueAsString()); break;
+                    case "email": employee.setEmail(p.getValueAsString()); break;
+                    case "department": employee.setDepartment(p.getValueAsString()); break;
+                    case "salary": employee.setSalary(isNull ? null : p.getDoubleValue()); break;
+                    case "hireDate": employee.setHireDate(isNull ? null : parseDate(p, ctxt)); break;
+                    case "version": employee.setVersion(isNull ? 0 : p.getLongValue()); break;
+                    default: p.skipChildren();
+                }
+            }
+            return employee;
+        }
+        
+        // Reported as a mapping error so Spring answers 400, not 500
+        private static LocalDate parseDate(JsonParser p, DeserializationContext ctxt) throws IOException {
+            String text = p.getText();
+            LocalDate date;
+            try {
+                date = LocalDate.parse(text);
+            } catch (DateTimeParseException ex) {
+                throw ctxt.weirdStringException(text, LocalDate.class, "expected yyyy-MM-dd");
+            }
+            // ISO parsing also takes signed or 5+ digit years ("+10000-01-01")
+            if (!IsoDates.hasFourDigitYear(date.getYear())) {
+                throw ctxt.weirdStringException(text, LocalDate.class, "year must be 0000-9999");
+            }
+            return date;
+        }
+    }
+    
+    private EmployeeCodec() {}
+}
+
+// Handles ValidationErrorResponse too, since Jackson resolves serializers
+// registered for a superclass when no closer match exists
+public class ErrorResponseSerializer extends StdSerializer<ErrorResponse> {
+    
+    public ErrorResponseSerializer() { super(ErrorResponse.class); }
+    
+    @Override
+    public void serialize(ErrorResponse error, JsonGenerator gen, SerializerProvider provider) 
+            throws IOException {
+        gen.writeStartObject();
+        gen.writeFieldName(JsonFields.CODE);
+        gen.writeString(error.getCode());
+        gen.writeFieldName(JsonFields.MESSAGE);
+        gen.writeString(error.getMessage());
+        gen.writeFieldName(JsonFields.TIMESTAMP);
+        IsoDates.writeDateTime(gen, error.getTimestamp());
+        if (error instanceof ValidationErrorResponse) {
+            gen.writeFieldName(JsonFields.ERRORS);
+            gen.writeStartArray();
+            for (String message : ((ValidationErrorResponse) error).getErrors()) {
+                gen.writeString(message);
+            }
+            gen.writeEndArray();
+        }
+        gen.writeEndObject();
+    }
+}
+
+/**
+ * Example 9: Fast-Startup Mode
+ * Learn: lazy initialization, deferred JPA bootstrap, AOT processing, AppCDS
+ *
+ * Build and run:
+ *   1. AOT:      mvn -Pnative -Dspring-boot.aot.jvmArguments=-Dapp.fast-startup=true spring-boot:process-aot package
+ *   2. Extract:  java -Djarmode=tools -jar target/app.jar extract --destination app
+ *   3. Training: java -XX:ArchiveClassesAtExit=app.jsa -Dspring.context.exit=onRefresh \
+ *                     -Dspring.aot.enabled=true -Dapp.fast-startup=true -jar app/app.jar
+ *   4. Run:      java -XX:SharedArchiveFile=app.jsa -Dspring.aot.enabled=true -Dapp.fast-startup=true -jar app/app.jar
+ *   5. Measure:  java StartupBenchmark app/app.jar 10 -XX:SharedArchiveFile=app.jsa \
+ *                     -Dspring.aot.enabled=true -Dapp.fast-startup=true
+ *
+ * AOT evaluates conditions and bootstrap settings at build time: without
+ * app.fast-startup=true in step 1, FastStartupConfig is dropped from the
+ * generated bean definitions and the JPA repositories are generated with
+ * the default bootstrap mode, and -Dapp.fast-startup=true at runtime cannot
+ * bring either back. An AOT build made with the flag must run with it.
+ * AppCDS needs the extracted layout: the archive only matches classes loaded
+ * from plain jars on the class path, not from inside the executable jar, so
+ * steps 3-5 all start app/app.jar with the same flags.
+ */
+
+// Runs once the Environment is prepared, before SpringApplication binds
+// spring.main.*, so the flag can come from env vars and args on OpenShift
+public class FastStartup implements ApplicationListener<ApplicationEnvironmentPreparedEvent> {
+    
+    @Override
+    public void onApplicationEvent(ApplicationEnvironmentPreparedEvent event) {
+        ConfigurableEnvironment environment = event.getEnvironment();
+        if (!environment.getProperty("app.fast-startup", Boolean.class, false)) {
+            return;
+        }
+        
+        Map<String, Object> defaults = new HashMap<>();
+        // Non-critical beans are created on first use instead of during refresh
+        defaults.put("spring.main.lazy-initialization", "true");
+        // Hibernate builds its metamodel on a background executor while the
+        // rest of the context refreshes; repositories block only on first use
+        defaults.put("spring.data.jpa.repositories.bootstrap-mode", "deferred");
+        defaults.put("spring.jpa.open-in-view", "false");
+        // Lowest precedence: explicit configuration still wins
+        environment.getPropertySources().addLast(new MapPropertySource("fastStartupDefaults", defaults));
+    }
+}
+
+// Beans on the request path stay eager so the first request does not pay
+// for their construction; everything else is lazy in fast-startup mode
+@Configuration
+@ConditionalOnProperty("app.fast-startup")
+public class FastStartupConfig {
+    
+    @Bean
+    public static LazyInitializationExcludeFilter eagerRequestPathBeans() {
+        return LazyInitializationExcludeFilter.forBeanTypes(
+            DataSource.class,
+            UserController.class,
+            GlobalExceptionHandler.class
+        );
+    }
+    
+    // Opens the Hikari pool's minimum connections in the background as soon
+    // as the DataSource exists, overlapping with the rest of context refresh
+    @Bean
+    public static BeanPostProcessor dataSourceWarmer() {
+        return new BeanPostProcessor() {
+            @Override
+            public Object postProcessAfterInitialization(Object bean, String beanName) {
+                if (bean instanceof HikariDataSource) {
+                    HikariDataSource dataSource = (HikariDataSource) bean;
+                    Thread warmer = new Thread(() -> {
+                        try (Connection connection = dataSource.getConnection()) {
+                            connection.isValid(1);
+                        } catch (SQLException ex) {
+                            // Surfaced again, with context, on first real use
+                        }
+                    }, "hikari-warmup");
+                    warmer.setDaemon(true);
+                    warmer.start();
+                }
+                return bean;
+            }
+        };
+    }
+    
+    @Bean
+    public ApplicationListener<ApplicationReadyEvent> startupTimeReporter() {
+        Logger logger = LoggerFactory.getLogger(FastStartupConfig.class);
+        return event -> logger.info("Ready to serve traffic {} ms after JVM start",
+            ManagementFactory.getRuntimeMXBean().getUptime());
+    }
+}
+
+// Time-to-first-request benchmark: launches the jar N times and reports
+// how long it takes from process start until GET /api/users answers 200.
+// A run fails if the process exits or does not answer 200 within the
+// deadline (-Dbenchmark.timeout-seconds, default 120).
+public class StartupBenchmark {
+    
+    private static final long TIMEOUT_NANOS = 
+        TimeUnit.SECONDS.toNanos(Long.getLong("benchmark.timeout-seconds", 120));
+    
+    public static void main(String[] args) throws Exception {
+        String jar = args.length > 0 ? args[0] : "target/app.jar";
+        int runs = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+        String[] jvmArgs = Arrays.copyOfRange(args, Math.min(2, args.length), args.length);
+        
+        HttpClient client = HttpClient.newHttpClient();
+        HttpRequest probe = HttpRequest.newBuilder(URI.create("http://localhost:8080/api/users"))
+            .timeout(Duration.ofMillis(200))
+            .build();
+        
+        long[] samples = new long[runs];
+        for (int run = 0; run < runs; run++) {
+            List<String> command = new ArrayList<>();
+            command.add("java");
+            command.addAll(Arrays.asList(jvmArgs));
+            command.add("-jar");
+            command.add(jar);
+            
+            long start = System.nanoTime();
+            Process process = new ProcessBuilder(command)
+                .redirectErrorStream(true)
+                .redirectOutput(ProcessBuilder.Redirect.DISCARD)
+                .start();
+            try {
+                int lastStatus = 0;
+                while (true) {
+                    if (!process.isAlive()) {
+                        throw new IllegalStateException("Run " + (run + 1) + ": application exited with code "
+                            + process.exitValue() + " before serving a request");
+                    }
+                    if (System.nanoTime() - start > TIMEOUT_NANOS) {
+                        throw new IllegalStateException("Run " + (run + 1) + ": no 200 within the deadline"
+                            + (lastStatus != 0 ? " (last status " + lastStatus + ")" : ""));
+                    }
+                    try {
+                        lastStatus = client.send(probe, HttpResponse.BodyHandlers.discarding()).statusCode();
+                        if (lastStatus == 200) {
+                            break;
+                        }
+                    } catch (IOException notUpYet) {
+                        // Connection refused until the server socket is bound
+                    }
+                    Thread.sleep(5);
+                }
+                samples[run] = (System.nanoTime() - start) / 1_000_000;
+                System.out.printf("Run %d: %d ms%n", run + 1, samples[run]);
+            } finally {
+                process.destroy();
+                process.waitFor();
+            }
+        }
+        
+        Arrays.sort(samples);
+        System.out.printf("Time to first request: min=%d ms, median=%d ms, max=%d ms%n",
+            samples[0], samples[runs / 2], samples[runs - 1]);
+    }
+}
+
+/**
+ * Example 10: In-Process Load Testing
+ * Learn: open-model load generation, coordinated omission, latency percentiles
+ *
+ * Check:  java LoadTestHarness [load-test-baseline.properties]
+ * Record: java LoadTestHarness [load-test-baseline.properties] --record <requests-per-second> <seconds>
+ * The committed baseline (next to this file) also fixes the rate and
+ * duration, so every check run drives the same load. Until it holds
+ * recorded latencies, every check run fails with "missing from baseline". The app boots
+ * in-process on the "test" profile (H2) on a random port, so the harness
+ * needs no network access or external tooling.
+ */
+
+// Constant-arrival-rate driver. Each request has an intended start time on a
+// fixed schedule; latency is measured from that intended time, not from when
+// the request was actually sent, so a stalled server cannot hide its own
+// queueing delay (coordinated omission correction).
+public class LoadTestHarness {
+    
+    private static final double TOLERANCE = 0.10;
+    
+    public static void main(String[] args) throws Exception {
+        Path baselineFile = Paths.get(args.length > 0 ? args[0] : "load-test-baseline.properties");
+        boolean record = args.length > 1 && "--record".equals(args[1]);
+        
+        Properties baseline = new Properties();
+        int rate;
+        int seconds;
+        if (record) {
+            rate = Integer.parseInt(args[2]);
+            seconds = Integer.parseInt(args[3]);
+        } else {
+            // A missing baseline is a failure, not a silent pass
+            if (!Files.exists(baselineFile)) {
+                System.err.println("No baseline at " + baselineFile + "; create one with --record <rate> <seconds>");
+                System.exit(1);
+            }
+            try (Reader reader = Files.newBufferedReader(baselineFile)) {
+                baseline.load(reader);
+            }
+            rate = Integer.parseInt(baseline.getProperty("rate"));
+            seconds = Integer.parseInt(baseline.getProperty("seconds"));
+        }
+        
+        ConfigurableApplicationContext context = new SpringApplicationBuilder(LearningApplication.class)
+            .profiles("test")
+            // Throwaway store and journal: a run must not touch data/users or audit
+            .properties("server.port=0",
+                "app.users.dir=" + Files.createTempDirectory("load-test-users"),
+                "app.audit.dir=" + Files.createTempDirectory("load-test-audit"))
+            .run();
+        int port = context.getEnvironment().getRequiredProperty("local.server.port", Integer.class);
+        String base = "http://localhost:" + port;
+        seed(context.getBean(EmployeeService.class));
+        
+        Map<String, Supplier<HttpRequest>> scenarios = new LinkedHashMap<>();
+        scenarios.put("users.list", () -> get(base + "/api/users"));
+        scenarios.put("users.create", () -> post(base + "/api/users",
+            "{\"name\":\"Load\",\"email\":\"load@test\",\"department\":\"QA\"}"));
+        scenarios.put("employees.byId", () -> get(base + "/api/employees/"
+            + (1 + ThreadLocalRandom.current().nextInt(100))));
+        scenarios.put("employees.page", () -> get(base + "/api/employees/salary-range?min=0&max=200000&page="
+            + ThreadLocalRandom.current().nextInt(5) + "&size=20"));
+        scenarios.put("employees.analytics", () -> get(base + "/api/employees/analytics/average-salary"));
+        
+        // Non-daemon threads: shut down in the finally below, or the JVM
+        // never exits after a passing run
+        ExecutorService clientExecutor = Executors.newFixedThreadPool(64);
+        HttpClient client = HttpClient.newBuilder()
+            .executor(clientExecutor)
+            .build();
+        List<String> regressions = new ArrayList<>();
+        Properties measured = new Properties();
+        measured.setProperty("rate", Integer.toString(rate));
+        measured.setProperty("seconds", Integer.toString(seconds));
+        
+        try {
+            for (Map.Entry<String, Supplier<HttpRequest>> scenario : scenarios.entrySet()) {
+                String name = scenario.getKey();
+                // Short warm-up so JIT compilation does not land in the measurement
+                drive(client, scenario.getValue(), rate, 2, new LatencyHistogram());
+                LatencyHistogram histogram = new LatencyHistogram();
+                double throughput = drive(client, scenario.getValue(), rate, seconds, histogram);
+                
+                System.out.printf("%-22s %8.1f req/s  p50=%6d us  p99=%6d us  p999=%6d us  errors=%d%n",
+                    name, throughput, histogram.percentile(50), histogram.percentile(99),
+                    histogram.percentile(99.9), histogram.errors());
+                
+                measured.setProperty(name + ".p50", Long.toString(histogram.percentile(50)));
+                measured.setProperty(name + ".p99", Long.toString(histogram.percentile(99)));
+                measured.setProperty(name + ".p999", Long.toString(histogram.percentile(99.9)));
+                measured.setProperty(name + ".throughput", String.format("%.1f", throughput));
+                
+                if (!record) {
+                    for (String metric : new String[] {"p50", "p99", "p999"}) {
+                        String limit = baseline.getProperty(name + "." + metric);
+                        long value = Long.parseLong(measured.getProperty(name + "." + metric));
+                        if (limit == null) {
+                            regressions.add(name + "." + metric + ": missing from baseline");
+                        } else if (value > Long.parseLong(limit) * (1 + TOLERANCE)) {
+                            regressions.add(name + "." + metric + ": " + value + " us > baseline " + limit + " us");
+                        }
+                    }
+                    String minThroughput = baseline.getProperty(name + ".throughput");
+                    if (minThroughput == null) {
+                        regressions.add(name + ".throughput: missing from baseline");
+                    } else if (throughput < Double.parseDouble(minThroughput) * (1 - TOLERANCE)) {
+                        regressions.add(name + ".throughput: " + throughput + " < baseline " + minThroughput);
+                    }
+                }
+                if (histogram.errors() > 0) {
+                    regressions.add(name + ": " + histogram.errors() + " failed requests");
+                }
+            }
+        } finally {
+            context.close();
+            clientExecutor.shutdownNow();
+        }
+        
+        // A run with failed requests is not a baseline
+        if (record && regressions.isEmpty()) {
+            try (Writer writer = Files.newBufferedWriter(baselineFile)) {
+                measured.store(writer, "Load test baseline: " + rate + " req/s for " + seconds + " s");
+            }
+            System.out.println("Baseline written to " + baselineFile);
+        }
+        if (!regressions.isEmpty()) {
+            regressions.forEach(r -> System.err.println("REGRESSION " + r));
+            System.exit(1);
+        }
+    }
+    
+    // Returns achieved throughput (completed requests per second)
+    static double drive(HttpClient client, Supplier<HttpRequest> requests, int rate, int seconds,
+                        LatencyHistogram histogram) throws InterruptedException {
+        long interval = 1_000_000_000L / rate;
+        long total = (long) rate * seconds;
+        CountDownLatch done = new CountDownLatch((int) total);
+        AtomicBoolean closed = new AtomicBoolean();
+        long start = System.nanoTime();
+        
+        for (long i = 0; i < total; i++) {
+            long intended = start + i * interval;
+            long wait = intended - System.nanoTime();
+            if (wait > 0) {
+                LockSupport.parkNanos(wait);
+            }
+            client.sendAsync(requests.get(), HttpResponse.BodyHandlers.discarding())
+                .whenComplete((response, error) -> {
+                    if (closed.get()) {
+                        // Already counted as a failure at the deadline
+                        return;
+                    }
+                    // Every scenario targets existing resources, so any 4xx is
+                    // a failure too (e.g. employees.byId answering 404)
+                    if (error != null || response.statusCode() >= 400) {
+                        histogram.recordError();
+                    } else {
+                        histogram.record((System.nanoTime() - intended) / 1_000);
+                    }
+                    done.countDown();
+                });
+        }
+        
+        if (!done.await(seconds + 30L, TimeUnit.SECONDS)) {
+            // Still in flight at the deadline: the stall this harness exists
+            // to expose, so each one is a failure rather than a missing sample
+            closed.set(true);
+            histogram.recordErrors(done.getCount());
+        }
+        double elapsed = (System.nanoTime() - start) / 1e9;
+        return histogram.count() / elapsed;
+    }
+    
+    private static void seed(EmployeeService employeeService) {
+        String[] departments = {"Engineering", "Marketing", "HR", "Finance"};
+        for (int i = 1; i <= 100; i++) {
+            employeeService.createEmployee(new Employee("Employee " + i, "employee" + i + "@test",
+                departments[i % departments.length], 40_000.0 + i * 1_000));
+        }
+    }
+    
+    private static HttpRequest get(String url) {
+        return HttpRequest.newBuilder(URI.create(url)).GET().build();
+    }
+    
+    private static HttpRequest post(String url, String json) {
+        return HttpRequest.newBuilder(URI.create(url))
+            .header("Content-Type", "application/json")
+            .POST(HttpRequest.BodyPublishers.ofString(json))
+            .build();
+    }
+}
+
+// Log-linear histogram of microsecond latencies: exact below 128 us, then
+// 64 sub-buckets per power of two (under 2% relative error). Lock-free.
+public class LatencyHistogram {
+    
+    private static final int LINEAR = 128;
+    private static final int SUB_BUCKETS = 64;
+    
+    private final AtomicLongArray counts = new AtomicLongArray(LINEAR + 58 * SUB_BUCKETS);
+    private final AtomicLong total = new AtomicLong();
+    private final AtomicLong errors = new AtomicLong();
+    
+    public void record(long micros) {
+        counts.incrementAndGet(indexOf(Math.max(0, micros)));
+        total.incrementAndGet();
+    }
+    
+    public void recordError() { errors.incrementAndGet(); }
+    
+    public void recordErrors(long count) { errors.addAndGet(count); }
+    
+    public long count() { return total.get(); }
+    
+    public long errors() { return errors.get(); }
+    
+    // Upper bound of the bucket holding the given percentile
+    public long percentile(double percentile) {
+        long target = (long) Math.ceil(total.get() * percentile / 100.0);
+        long seen = 0;
+        for (int i = 0; i < counts.length(); i++) {
+            seen += counts.get(i);
+            if (seen >= target && seen > 0) {
+                return valueOf(i);
+            }
+        }
+        return 0;
+    }
+    
+    private static int indexOf(long value) {
+        if (value < LINEAR) {
+            return (int) value;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(value) - 6;
+        int sub = (int) (value >>> shift) - SUB_BUCKETS;
+        return LINEAR + (shift - 1) * SUB_BUCKETS + sub;
+    }
+    
+    private static long valueOf(int index) {
+        if (index < LINEAR) {
+            return index;
+        }
+        int shift = (index - LINEAR) / SUB_BUCKETS + 1;
+        long sub = (index - LINEAR) % SUB_BUCKETS + SUB_BUCKETS;
+        return ((sub + 1) << shift) - 1;
+    }
+}
+
+/**
+ * Example 11: Conditional GET and Response Compression
+ * Learn: ETag/Last-Modified validators, 304 Not Modified, gzip negotiation
+ *
+ * The read endpoints in UserController and EmployeeController compute a
+ * validator before touching the body; WebRequest.checkNotModified() then
+ * writes the 304 and the handler returns null, so nothing is serialized.
+ * (ShallowEtagHeaderFilter would also give ETags, but only after rendering
+ * and hashing the full body.)
+ *
+ * The validators are weak (W/"..."): Tomcat's noCompressionStrongETag
+ * (default true) refuses to gzip any response carrying a strong ETag, since
+ * a strong tag promises identical bytes and the gzipped body is not. A weak
+ * tag covers both encodings, and If-None-Match uses weak comparison anyway.
+ *   curl -si -H 'Accept-Encoding: gzip' localhost:8080/api/users
+ *   -> Content-Encoding: gzip, ETag: W/"users-..."  (once the list is over 2 KB)
+ */
+
+@Configuration
+public class CompressionConfig {
+    
+    // gzip is negotiated via Accept-Encoding for JSON bodies over 2 KB;
+    // smaller bodies cost more CPU to compress than they save on the wire.
+    // Tomcat has no brotli encoder - terminate brotli at the OpenShift route
+    // or ingress if it is needed.
+    @Bean
+    public WebServerFactoryCustomizer<ConfigurableServletWebServerFactory> compressionCustomizer() {
+        return factory -> {
+            Compression compression = new Compression();
+            compression.setEnabled(true);
+            compression.setMinResponseSize(DataSize.ofKilobytes(2));
+            compression.setMimeTypes(new String[] {"application/json", "text/csv"});
+            factory.setCompression(compression);
+        };
+    }
+}
+
+/**
+ * Example 12: Write-Behind Audit Journal
+ * Learn: @EntityListeners, transaction synchronization, group commit, NIO FileChannel
+ *
+ * Durability guarantee: an event is journaled only after its transaction
+ * commits. It is written to the OS within one drain cycle and forced to
+ * disk at most app.audit.fsync-interval-ms (default 50 ms) later. A crash
+ * can lose at most that window of events; it never leaves a partial record
+ * visible, because replay skips the rest of a segment at the first record
+ * whose CRC does not match.
+ */
+
+public class AuditEvent {
+    
+    public enum Type { CREATED, UPDATED, DELETED }
+    
+    private final long timestamp;
+    private final Type type;
+    private final long employeeId;
+    private final String detail;
+    
+    public AuditEvent(long timestamp, Type type, long employeeId, String detail) {
+        this.timestamp = timestamp;
+        this.type = type;
+        this.employeeId = employeeId;
+        this.detail = detail;
+    }
+    
+    public long getTimestamp() { return timestamp; }
+    public Type getType() { return type; }
+    public long getEmployeeId() { return employeeId; }
+    public String getDetail() { return detail; }
+    
+    @Override
+    public String toString() {
+        return String.format("AuditEvent{%s, employeeId=%d, at=%s, %s}",
+            type, employeeId, Instant.ofEpochMilli(timestamp), detail);
+    }
+}
+
+// Hibernate creates this through Spring, so constructor injection works.
+// The listener only enqueues; it never touches the disk.
+public class AuditEntityListener {
+    
+    private final AuditJournal journal;
+    
+    public AuditEntityListener(AuditJournal journal) {
+        this.journal = journal;
+    }
+    
+    @PostPersist
+    public void onCreate(Employee employee) { afterCommit(AuditEvent.Type.CREATED, employee); }
+    
+    @PostUpdate
+    public void onUpdate(Employee employee) { afterCommit(AuditEvent.Type.UPDATED, employee); }
+    
+    @PostRemove
+    public void onDelete(Employee employee) { afterCommit(AuditEvent.Type.DELETED, employee); }
+    
+    private void afterCommit(AuditEvent.Type type, Employee employee) {
+        journal.appendAfterCommit(new AuditEvent(System.currentTimeMillis(), type, employee.getId(),
+            employee.getDepartment() + "/" + employee.getSalary()));
+    }
+}
+
+// Append-only journal: producers push into a bounded lock-free queue, one
+// writer thread drains batches into a FileChannel and fsyncs periodically.
+// Segments are named audit-<first sequence>.log and rotate at a size limit.
+@Component
+public class AuditJournal implements SmartLifecycle {
+    
+    private static final Logger logger = LoggerFactory.getLogger(AuditJournal.class);
+    private static final int MAX_BATCH = 1024;
+    
+    private final Path directory;
+    private final int capacity;
+    private final long maxSegmentBytes;
+    private final long fsyncIntervalNanos;
+    
+    private final ConcurrentLinkedQueue<AuditEvent> queue = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger queued = new AtomicInteger();
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(1 << 20);
+    private final CRC32C crc = new CRC32C();
+    
+    private volatile boolean running;
+    // Set when the writer hits an I/O error; from then on events are dropped
+    // and counted rather than queued, so request threads never block on it
+    private volatile boolean failed;
+    private final AtomicLong dropped = new AtomicLong();
+    private Thread writer;
+    private FileChannel segment;
+    private long sequence;
+    
+    public AuditJournal(@Value("${app.audit.dir:audit}") String directory,
+                        @Value("${app.audit.queue-capacity:65536}") int capacity,
+                        @Value("${app.audit.segment-bytes:67108864}") long maxSegmentBytes,
+                        @Value("${app.audit.fsync-interval-ms:50}") long fsyncIntervalMs) {
+        this.directory = Paths.get(directory);
+        this.capacity = capacity;
+        this.maxSegmentBytes = maxSegmentBytes;
+        this.fsyncIntervalNanos = TimeUnit.MILLISECONDS.toNanos(fsyncIntervalMs);
+    }
+    
+    // Called on the request thread: a CAS and a queue link in the common case.
+    // When the writer falls behind, producers back off instead of dropping;
+    // once it has failed, events are dropped and counted.
+    public void append(AuditEvent event) {
+        while (queued.incrementAndGet() > capacity) {
+            queued.decrementAndGet();
+            if (failed) {
+                dropped.incrementAndGet();
+                return;
+            }
+            LockSupport.parkNanos(50_000);
+        }
+        if (failed) {
+            queued.decrementAndGet();
+            dropped.incrementAndGet();
+            return;
+        }
+        queue.offer(event);
+    }
+    
+    public boolean isFailed() { return failed; }
+    
+    public long getDroppedEvents() { return dropped.get(); }
+    
+    // Rolled-back changes must not reach the journal
+    public void appendAfterCommit(AuditEvent event) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    append(event);
+                }
+            });
+        } else {
+            append(event);
+        }
+    }
+    
+    @Override
+    public void start() {
+        try {
+            Files.createDirectories(directory);
+            sequence = lastSequence(directory);
+            openSegment();
+        } catch (IOException ex) {
+            throw new UncheckedIOException("Cannot open audit journal in " + directory, ex);
+        }
+        running = true;
+        writer = new Thread(this::writeLoop, "audit-journal-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+    
+    @Override
+    public void stop() {
+        running = false;
+        LockSupport.unpark(writer);
+        try {
+            writer.join(5_000);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+    
+    @Override
+    public boolean isRunning() { return running; }
+    
+    // Lower than the web server's phases: started before it accepts traffic
+    // and stopped only after it has drained in-flight requests, so events
+    // committed during graceful shutdown are still written
+    @Override
+    public int getPhase() { return SmartLifecycle.DEFAULT_PHASE - 4096; }
+    
+    private void writeLoop() {
+        long lastSync = System.nanoTime();
+        boolean dirty = false;
+        try {
+            while (running || !queue.isEmpty()) {
+                int written = drainBatch();
+                dirty |= written > 0;
+                
+                long now = System.nanoTime();
+                if (dirty && (now - lastSync >= fsyncIntervalNanos || !running)) {
+                    segment.force(false);
+                    lastSync = now;
+                    dirty = false;
+                }
+                if (written == 0) {
+                    LockSupport.parkNanos(1_000_000);
+                }
+            }
+            segment.force(false);
+            segment.close();
+        } catch (IOException ex) {
+            failed = true;
+            logger.error("Audit journal writer failed; events are no longer persisted", ex);
+            // Release queued events; producers see 'failed' and stop queuing
+            int discarded = 0;
+            while (queue.poll() != null) {
+                queued.decrementAndGet();
+                discarded++;
+            }
+            dropped.addAndGet(discarded);
+        }
+    }
+    
+    // Record layout: int length | int crc32c | long sequence | long timestamp
+    //                | byte type | long employeeId | utf-8 detail
+    private int drainBatch() throws IOException {
+        int count = 0;
+        AuditEvent event;
+        buffer.clear();
+        while (count < MAX_BATCH && buffer.remaining() > 4096 && (event = queue.poll()) != null) {
+            queued.decrementAndGet();
+            byte[] detail = event.getDetail().getBytes(StandardCharsets.UTF_8);
+            int detailLength = Math.min(detail.length, 2048);
+            // Never cut a multi-byte character: back off continuation bytes
+            while (detailLength < detail.length && (detail[detailLength] & 0xC0) == 0x80) {
+                detailLength--;
+            }
+            int length = 8 + 8 + 1 + 8 + detailLength;
+            
+            int start = buffer.position();
+            buffer.putInt(length).putInt(0)
+                .putLong(++sequence).putLong(event.getTimestamp())
+                .put((byte) event.getType().ordinal()).putLong(event.getEmployeeId())
+                .put(detail, 0, length - 25);
+            
+            crc.reset();
+            crc.update(buffer.duplicate().position(start + 8).limit(buffer.position()));
+            buffer.putInt(start + 4, (int) crc.getValue());
+            count++;
+        }
+        if (count > 0) {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                segment.write(buffer);
+            }
+            if (segment.size() >= maxSegmentBytes) {
+                segment.force(false);
+                segment.close();
+                openSegment();
+            }
+        }
+        return count;
+    }
+    
+    private void openSegment() throws IOException {
+        Path file = directory.resolve(String.format("audit-%020d.log", sequence + 1));
+        // A segment with this name can only pre-exist if it held nothing valid
+        segment = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+            StandardOpenOption.TRUNCATE_EXISTING);
+    }
+    
+    // Only the newest segment matters: its name carries the sequence of its
+    // first record, so reading its valid records gives the last sequence
+    // without touching the older, possibly many, full segments
+    private static long lastSequence(Path directory) throws IOException {
+        List<Path> segments = segments(directory);
+        if (segments.isEmpty()) {
+            return 0;
+        }
+        Path newest = segments.get(segments.size() - 1);
+        String name = newest.getFileName().toString();
+        long[] last = {Long.parseLong(name.substring(6, 26)) - 1};
+        readSegment(newest, new CRC32C(), (sequence, event) -> last[0] = sequence);
+        return last[0];
+    }
+    
+    // Reads every segment in order. Within a segment, reading stops at the
+    // first torn or corrupt record - the unsynced tail left by a crash; the
+    // writer always starts a fresh segment on restart.
+    public static void replay(Path directory, BiConsumer<Long, AuditEvent> consumer) throws IOException {
+        CRC32C check = new CRC32C();
+        for (Path file : segments(directory)) {
+            readSegment(file, check, consumer);
+        }
+    }
+    
+    private static List<Path> segments(Path directory) throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(f -> f.getFileName().toString().matches("audit-\\d{20}\\.log"))
+                .sorted()
+                .collect(Collectors.toList());
+        }
+    }
+    
+    private static void readSegment(Path file, CRC32C check, BiConsumer<Long, AuditEvent> consumer)
+            throws IOException {
+        AuditEvent.Type[] types = AuditEvent.Type.values();
+        ByteBuffer data;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            data = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        while (data.remaining() >= 8) {
+            int length = data.getInt();
+            int expected = data.getInt();
+            if (length < 25 || length > data.remaining()) {
+                return;
+            }
+            check.reset();
+            check.update(data.duplicate().limit(data.position() + length));
+            if ((int) check.getValue() != expected) {
+                return;
+            }
+            long sequence = data.getLong();
+            long timestamp = data.getLong();
+            AuditEvent.Type type = types[data.get()];
+            long employeeId = data.getLong();
+            byte[] detail = new byte[length - 25];
+            data.get(detail);
+            consumer.accept(sequence, new AuditEvent(timestamp, type, employeeId,
+                new String(detail, StandardCharsets.UTF_8)));
+        }
+    }
+}
+
+/**
+ * Example 13: Adaptive Admission Control
+ * Learn: OncePerRequestFilter, AIMD concurrency limits, load shedding, Micrometer gauges
+ *
+ * Each endpoint group gets its own limiter. The limit grows by one request
+ * per "limit" successes while latency stays under target (additive increase)
+ * and shrinks by 10% when a request is slower (multiplicative decrease).
+ * A request that cannot get a slot within its queue-time budget is rejected
+ * immediately with 503 and Retry-After instead of piling up on the database.
+ */
+
+public class AdaptiveLimiter {
+    
+    private final String name;
+    private final long targetLatencyNanos;
+    private final long queueBudgetNanos;
+    private final int minLimit;
+    private final int maxLimit;
+    
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicLong rejected = new AtomicLong();
+    private volatile double limit;
+    
+    public AdaptiveLimiter(String name, Duration targetLatency, Duration queueBudget,
+                           int minLimit, int initialLimit, int maxLimit) {
+        this.name = name;
+        this.targetLatencyNanos = targetLatency.toNanos();
+        this.queueBudgetNanos = queueBudget.toNanos();
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.limit = initialLimit;
+    }
+    
+    // Returns false when no slot frees up within the queue-time budget
+    public boolean tryAcquire() {
+        long deadline = System.nanoTime() + queueBudgetNanos;
+        while (true) {
+            int current = inFlight.get();
+            if (current < (int) limit) {
+                if (inFlight.compareAndSet(current, current + 1)) {
+                    return true;
+                }
+                continue;
+            }
+            if (System.nanoTime() >= deadline) {
+                rejected.incrementAndGet();
+                return false;
+            }
+            LockSupport.parkNanos(100_000);
+        }
+    }
+    
+    public void release(long latencyNanos) {
+        inFlight.decrementAndGet();
+        // Racy read-modify-write is fine: the limit is a heuristic
+        double current = limit;
+        if (latencyNanos <= targetLatencyNanos) {
+            limit = Math.min(maxLimit, current + 1.0 / current);
+        } else {
+            limit = Math.max(minLimit, current * 0.9);
+        }
+    }
+    
+    // Frees the slot without feeding the latency signal: used for streaming
+    // exports, whose duration tracks table size rather than database health
+    public void releaseWithoutSample() {
+        inFlight.decrementAndGet();
+    }
+    
+    public boolean isSaturated() { return inFlight.get() >= (int) limit; }
+    
+    // Counts a request shed without trying for a slot
+    public void reject() { rejected.incrementAndGet(); }
+    
+    public String getName() { return name; }
+    public double getLimit() { return limit; }
+    public int getInFlight() { return inFlight.get(); }
+    public long getRejected() { return rejected.get(); }
+}
+
+// Cheap CRUD calls get a larger limit and a longer queue budget. Analytical
+// calls are also shed outright whenever CRUD is saturated, so they are the
+// first to go when the database slows down.
+@Component
+public class AdmissionControlFilter extends OncePerRequestFilter implements MeterBinder {
+    
+    private final AdaptiveLimiter crud = new AdaptiveLimiter("crud",
+        Duration.ofMillis(50), Duration.ofMillis(20), 4, 20, 200);
+    private final AdaptiveLimiter analytics = new AdaptiveLimiter("analytics",
+        Duration.ofMillis(500), Duration.ofMillis(5), 1, 4, 20);
+    // Node-to-node partials calls (Example 16). An org-report already holds an
+    // analytics slot while it waits on every node, this one included; taking
+    // a second analytics slot for its own partials would deadlock at limit 1.
+    private final AdaptiveLimiter partials = new AdaptiveLimiter("partials",
+        Duration.ofMillis(500), Duration.ofMillis(5), 1, 4, 20);
+    
+    @Override
+    protected boolean shouldNotFilter(HttpServletRequest request) {
+        String path = request.getRequestURI();
+        return !path.startsWith("/api/users") && !path.startsWith("/api/employees");
+    }
+    
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response,
+                                    FilterChain chain) throws ServletException, IOException {
+        String path = request.getRequestURI();
+        boolean export = path.startsWith("/api/employees/export");
+        // Full-table exports are the heaviest calls and share the analytics budget
+        AdaptiveLimiter limiter = path.startsWith("/api/employees/analytics/partials") ? partials
+            : export || path.startsWith("/api/employees/analytics") ? analytics
+            : crud;
+        
+        boolean shed = limiter == analytics && crud.isSaturated();
+        if (shed) {
+            limiter.reject();
+        }
+        if (shed || !limiter.tryAcquire()) {
+            response.setStatus(HttpStatus.SERVICE_UNAVAILABLE.value());
+            response.setHeader(HttpHeaders.RETRY_AFTER, limiter == analytics ? "5" : "1");
+            return;
+        }
+        
+        long start = System.nanoTime();
+        boolean async = false;
+        try {
+            chain.doFilter(request, response);
+            async = request.isAsyncStarted();
+        } finally {
+            if (async) {
+                // StreamingResponseBody: the body is still being written, so
+                // the slot is held until the async request completes
+                request.getAsyncContext().addListener(new SlotReleasingListener(limiter, start, export));
+            } else {
+                limiter.release(System.nanoTime() - start);
+            }
+        }
+    }
+    
+    // Async dispatches are not re-filtered (OncePerRequestFilter default), so
+    // this listener is the only release for an async request
+    private static class SlotReleasingListener implements AsyncListener {
+        
+        private final AdaptiveLimiter limiter;
+        private final long start;
+        private final boolean export;
+        private final AtomicBoolean released = new AtomicBoolean();
+        
+        SlotReleasingListener(AdaptiveLimiter limiter, long start, boolean export) {
+            this.limiter = limiter;
+            this.start = start;
+            this.export = export;
+        }
+        
+        @Override
+        public void onComplete(AsyncEvent event) { release(); }
+        
+        @Override
+        public void onTimeout(AsyncEvent event) { release(); }
+        
+        @Override
+        public void onError(AsyncEvent event) { release(); }
+        
+        @Override
+        public void onStartAsync(AsyncEvent event) {}
+        
+        private void release() {
+            if (released.compareAndSet(false, true)) {
+                if (export) {
+                    limiter.releaseWithoutSample();
+                } else {
+                    limiter.release(System.nanoTime() - start);
+                }
+            }
+        }
+    }
+    
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        for (AdaptiveLimiter limiter : Arrays.asList(crud, analytics, partials)) {
+            Tags tags = Tags.of("group", limiter.getName());
+            Gauge.builder("admission.limit", limiter, AdaptiveLimiter::getLimit).tags(tags).register(registry);
+            Gauge.builder("admission.inflight", limiter, AdaptiveLimiter::getInFlight).tags(tags).register(registry);
+            FunctionCounter.builder("admission.rejected", limiter, AdaptiveLimiter::getRejected)
+                .tags(tags).register(registry);
+        }
+    }
+}
+
+/**
+ * Example 14: Streaming Bulk Export
+ * Learn: JdbcTemplate with forward-only cursors, fetch size, StreamingResponseBody
+ *
+ * Rows are read with plain JDBC - no entities, no persistence context - and
+ * written out as they arrive, so memory use is bounded by the fetch size
+ * (plus one row group for the columnar format), not by the table size.
+ * PostgreSQL only uses a server-side cursor inside a transaction, hence the
+ * TransactionTemplate; MySQL needs fetch size Integer.MIN_VALUE to stream.
+ */
+
+// Same filters as the repository queries; every field is optional.
+// Bound from request parameters: ?department=HR&minSalary=50000&hiredAfter=2020-01-01
+public class EmployeeExportFilter {
+    private String department;
+    private Double minSalary;
+    private Double maxSalary;
+    
+    @DateTimeFormat(iso = DateTimeFormat.ISO.DATE)
+    private LocalDate hiredAfter;
+    
+    public String getDepartment() { return department; }
+    public void setDepartment(String department) { this.department = department; }
+    
+    public Double getMinSalary() { return minSalary; }
+    public void setMinSalary(Double minSalary) { this.minSalary = minSalary; }
+    
+    public Double getMaxSalary() { return maxSalary; }
+    public void setMaxSalary(Double maxSalary) { this.maxSalary = maxSalary; }
+    
+    public LocalDate getHiredAfter() { return hiredAfter; }
+    public void setHiredAfter(LocalDate hiredAfter) { this.hiredAfter = hiredAfter; }
+}
+
+public enum ExportFormat {
+    CSV(".csv"),
+    COLUMNAR(".empc");
+    
+    private final String extension;
+    
+    ExportFormat(String extension) { this.extension = extension; }
+    
+    public String getExtension() { return extension; }
+}
+
+@Service
+public class EmployeeExportService {
+    
+    private static final int FETCH_SIZE = 1_000;
+    
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final DepartmentDirectory departments;
+    private final DataSource dataSource;
+    private final Logger logger = LoggerFactory.getLogger(EmployeeExportService.class);
+    
+    public EmployeeExportService(DataSource dataSource, PlatformTransactionManager transactionManager,
+                                 DepartmentDirectory departments) {
+        this.dataSource = dataSource;
+        this.departments = departments;
+        this.jdbcTemplate = new JdbcTemplate(dataSource);
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.transactionTemplate.setReadOnly(true);
+    }
+    
+    public void export(EmployeeExportFilter filter, ExportFormat format, OutputStream out) throws IOException {
+        try (RowSink sink = openSink(format, out)) {
+            exportRange(filter, null, null, sink);
+        }
+    }
+    
+    // Splits the id range into equal slices and writes each to its own file
+    // (employees-part-000.csv, ...); slices beyond the connection cap queue
+    public List<Path> exportParallel(EmployeeExportFilter filter, ExportFormat format,
+                                     Path directory, int partitions) throws IOException {
+        Long[] bounds = jdbcTemplate.queryForObject("SELECT MIN(id), MAX(id) FROM employees",
+            (rs, row) -> new Long[] {rs.getLong(1), rs.getLong(2)});
+        long minId = bounds[0];
+        long span = Math.max(1, (bounds[1] - minId + partitions) / partitions);
+        
+        Files.createDirectories(directory);
+        // Each running slice holds a pooled connection for its whole cursor;
+        // run at most pool size - 1 at once so request traffic keeps one
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(partitions, maxConcurrentSlices()));
+        try {
+            List<Future<Path>> parts = new ArrayList<>();
+            for (int i = 0; i < partitions; i++) {
+                long from = minId + i * span;
+                long to = from + span;
+                Path file = directory.resolve(String.format("employees-part-%03d%s", i, format.getExtension()));
+                parts.add(executor.submit(() -> {
+                    try (RowSink sink = openSink(format, Files.newOutputStream(file))) {
+                        exportRange(filter, from, to, sink);
+                    }
+                    return file;
+                }));
+            }
+            
+            List<Path> files = new ArrayList<>();
+            for (Future<Path> part : parts) {
+                files.add(part.get());
+            }
+            logger.info("Exported employees in {} partitions to {}", partitions, directory);
+            return files;
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Export interrupted", ex);
+        } catch (ExecutionException ex) {
+            throw new IOException("Export partition failed", ex.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+    
+    private int maxConcurrentSlices() {
+        if (dataSource instanceof HikariDataSource) {
+            return Math.max(1, ((HikariDataSource) dataSource).getMaximumPoolSize() - 1);
+        }
+        return 1;
+    }
+    
+    private void exportRange(EmployeeExportFilter filter, Long fromId, Long toId, RowSink sink) {
+        StringBuilder sql = new StringBuilder(
+            "SELECT e.id, e.name, e.email, d.name, e.salary, e.hire_date"
+            + " FROM employees e JOIN departments d ON d.id = e.department_id WHERE 1 = 1");
+        List<Object> params = new ArrayList<>();
+        if (filter.getDepartment() != null) {
+            // Unknown department: -1 matches nothing
+            Integer departmentId = departments.findId(filter.getDepartment());
+            sql.append(" AND e.department_id = ?");
+            params.add(departmentId != null ? departmentId : -1);
+        }
+        if (filter.getMinSalary() != null) { sql.append(" AND e.salary >= ?"); params.add(filter.getMinSalary()); }
+        if (filter.getMaxSalary() != null) { sql.append(" AND e.salary <= ?"); params.add(filter.getMaxSalary()); }
+        if (filter.getHiredAfter() != null) { sql.append(" AND e.hire_date >= ?"); params.add(filter.getHiredAfter()); }
+        if (fromId != null) { sql.append(" AND e.id >= ? AND e.id < ?"); params.add(fromId); params.add(toId); }
+        sql.append(" ORDER BY e.id");
+        
+        transactionTemplate.executeWithoutResult(status -> jdbcTemplate.query(connection -> {
+            PreparedStatement statement = connection.prepareStatement(sql.toString(),
+                ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+            statement.setFetchSize(FETCH_SIZE);
+            for (int i = 0; i < params.size(); i++) {
+                statement.setObject(i + 1, params.get(i));
+            }
+            return statement;
+        }, (RowCallbackHandler) rs -> {
+            try {
+                sink.write(rs);
+            } catch (IOException ex) {
+                throw new UncheckedIOException(ex);
+            }
+        }));
+    }
+    
+    private static RowSink openSink(ExportFormat format, OutputStream out) throws IOException {
+        return format == ExportFormat.CSV ? new CsvRowSink(out) : new ColumnarRowSink(out);
+    }
+}
+
+interface RowSink extends Closeable {
+    void write(ResultSet rs) throws SQLException, IOException;
+}
+
+class CsvRowSink implements RowSink {
+    
+    private final Writer writer;
+    
+    CsvRowSink(OutputStream out) throws IOException {
+        this.writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), 64 * 1024);
+        writer.write("id,name,email,department,salary,hire_date\n");
+    }
+    
+    @Override
+    public void write(ResultSet rs) throws SQLException, IOException {
+        writer.write(Long.toString(rs.getLong(1)));
+        writer.write(',');
+        writeText(rs.getString(2));
+        writer.write(',');
+        writeText(rs.getString(3));
+        writer.write(',');
+        writeText(rs.getString(4));
+        writer.write(',');
+        writer.write(Double.toString(rs.getDouble(5)));
+        writer.write(',');
+        writer.write(rs.getDate(6).toLocalDate().toString());
+        writer.write('\n');
+    }
+    
+    private void writeText(String value) throws IOException {
+        // RFC 4180: fields holding a comma, quote, CR or LF must be quoted
+        if (value.indexOf(',') < 0 && value.indexOf('"') < 0
+                && value.indexOf('\n') < 0 && value.indexOf('\r') < 0) {
+            writer.write(value);
+            return;
+        }
+        writer.write('"');
+        writer.write(value.replace("\"", "\"\""));
+        writer.write('"');
+    }
+    
+    @Override
+    public void close() throws IOException {
+        writer.close();
+    }
+}
+
+// Compact columnar format: magic "EMPC", version, then row groups of up to
+// 4096 rows, each stored column by column:
+//   int rows | long[] id | utf[] name | utf[] email | utf[] department
+//            | double[] salary | int[] hire_date (epoch day)
+// A row group with rows = 0 marks the end of the file.
+class ColumnarRowSink implements RowSink {
+    
+    private static final int GROUP_SIZE = 4096;
+    
+    private final DataOutputStream out;
+    private final long[] ids = new long[GROUP_SIZE];
+    private final String[] names = new String[GROUP_SIZE];
+    private final String[] emails = new String[GROUP_SIZE];
+    private final String[] departments = new String[GROUP_SIZE];
+    private final double[] salaries = new double[GROUP_SIZE];
+    private final int[] hireDays = new int[GROUP_SIZE];
+    private int rows;
+    
+    ColumnarRowSink(OutputStream out) throws IOException {
+        this.out = new DataOutputStream(new BufferedOutputStream(out, 64 * 1024));
+        this.out.writeInt(0x454D5043);
+        this.out.writeByte(1);
+    }
+    
+    @Override
+    public void write(ResultSet rs) throws SQLException, IOException {
+        ids[rows] = rs.getLong(1);
+        names[rows] = rs.getString(2);
+        emails[rows] = rs.getString(3);
+        departments[rows] = rs.getString(4);
+        salaries[rows] = rs.getDouble(5);
+        hireDays[rows] = (int) rs.getDate(6).toLocalDate().toEpochDay();
+        if (++rows == GROUP_SIZE) {
+            flushGroup();
+        }
+    }
+    
+    private void flushGroup() throws IOException {
+        out.writeInt(rows);
+        for (int i = 0; i < rows; i++) out.writeLong(ids[i]);
+        for (int i = 0; i < rows; i++) out.writeUTF(names[i]);
+        for (int i = 0; i < rows; i++) out.writeUTF(emails[i]);
+        for (int i = 0; i < rows; i++) out.writeUTF(departments[i]);
+        for (int i = 0; i < rows; i++) out.writeDouble(salaries[i]);
+        for (int i = 0; i < rows; i++) out.writeInt(hireDays[i]);
+        Arrays.fill(names, 0, rows, null);
+        Arrays.fill(emails, 0, rows, null);
+        Arrays.fill(departments, 0, rows, null);
+        rows = 0;
+    }
+    
+    @Override
+    public void close() throws IOException {
+        if (rows > 0) {
+            flushGroup();
+        }
+        out.writeInt(0);
+        out.close();
+    }
+}
+
+/**
+ * Example 15: Durable In-Memory Store
+ * Learn: write-ahead logging, memory-mapped files, snapshots, crash recovery
+ *
+ * Every write to UserStore is appended to a memory-mapped write-ahead log
+ * (wal-<generation>.log) before the in-memory map changes. Because the log
+ * is a mapping, an append is a memory copy; a flusher thread forces dirty
+ * pages to disk every app.users.fsync-interval-ms (group commit).
+ *   - Process crash: nothing is lost (the page cache holds the mapping).
+ *   - OS/power failure: at most one fsync interval of writes is lost.
+ * When the log fills up, a fresh log generation starts at once and a
+ * background thread writes the map to a snapshot file (temp file + fsync +
+ * atomic rename), so writers never wait for it. The snapshot is fuzzy: it
+ * may already hold writes made after the rotation, which is harmless because
+ * replaying a record is idempotent and the new generation holds all of them.
+ * Recovery loads the snapshot, then replays every log generation from the
+ * snapshot's sequence on, stopping at the first record with a bad CRC or a
+ * sequence gap.
+ */
+
+@Component
+public class UserStore implements SmartLifecycle {
+    
+    private static final Logger logger = LoggerFactory.getLogger(UserStore.class);
+    private static final int SNAPSHOT_MAGIC = 0x55534E50;
+    private static final byte INSERT = 1;
+    private static final byte PUT = 2;
+    private static final byte DELETE = 3;
+    
+    private final Path directory;
+    private final int walBytes;
+    private final long fsyncIntervalMs;
+    
+    // Sorted by id; iteration is weakly consistent, so reads need no lock
+    private final ConcurrentSkipListMap<Long, User> users = new ConcurrentSkipListMap<>();
+    private final CRC32C crc = new CRC32C();
+    
+    private long nextId = 1;
+    // Written under the store lock, read lock-free for ETags
+    private volatile long sequence;
+    private String storeId;
+    private long generation;
+    // Read by the flusher and snapshot threads
+    private volatile MappedByteBuffer wal;
+    // Full generations not yet forced to disk
+    private final Queue<MappedByteBuffer> sealed = new ConcurrentLinkedQueue<>();
+    private volatile boolean dirty;
+    private ScheduledExecutorService flusher;
+    // One thread, so snapshots are written in rotation order
+    private ExecutorService snapshotter;
+    
+    public UserStore(@Value("${app.users.dir:data/users}") String directory,
+                     @Value("${app.users.wal-bytes:134217728}") int walBytes,
+                     @Value("${app.users.fsync-interval-ms:10}") long fsyncIntervalMs) {
+        this.directory = Paths.get(directory);
+        this.walBytes = walBytes;
+        this.fsyncIntervalMs = fsyncIntervalMs;
+    }
+    
+    public Collection<User> findAll() { return users.values(); }
+    
+    public User findById(Long id) { return users.get(id); }
+    
+    // Random id fixed when the store directory is first created; with the
+    // sequence it identifies one exact state of this store
+    public String getStoreId() { return storeId; }
+    
+    public long getSequence() { return sequence; }
+    
+    // Assigns the next id
+    public synchronized void insert(User user) {
+        user.setId(nextId);
+        append(INSERT, user.getId(), user);
+        nextId++;
+        users.put(user.getId(), user);
+    }
+    
+    // Returns true if a user with this id already existed. A PUT that
+    // creates an id moves nextId past it, so a later POST cannot reuse it.
+    public synchronized boolean put(User user) {
+        append(PUT, user.getId(), user);
+        nextId = Math.max(nextId, user.getId() + 1);
+        return users.put(user.getId(), user) != null;
+    }
+    
+    public synchronized boolean delete(Long id) {
+        if (!users.containsKey(id)) {
+            return false;
+        }
+        append(DELETE, id, null);
+        users.remove(id);
+        return true;
+    }
+    
+    // Record layout: int length | int crc32c | long sequence | byte op | long id
+    //                | [name | email | department] (short length + utf-8, -1 = null)
+    private void append(byte op, long id, User user) {
+        byte[][] fields = user == null ? new byte[0][] : new byte[][] {
+            utf8(user.getName()), utf8(user.getEmail()), utf8(user.getDepartment())
+        };
+        int length = 8 + 1 + 8;
+        for (byte[] field : fields) {
+            // Lengths are stored as a signed short; reject before anything is written
+            if (field != null && field.length > Short.MAX_VALUE) {
+                throw InvalidUserException.FIELD_TOO_LONG;
+            }
+            length += 2 + (field == null ? 0 : field.length);
+        }
+        
+        if (wal.remaining() < 8 + length) {
+            try {
+                rotate();
+            } catch (IOException ex) {
+                throw new UncheckedIOException("User store log rotation failed", ex);
+            }
+        }
+        
+        int start = wal.position();
+        wal.position(start + 8);
+        wal.putLong(++sequence).put(op).putLong(id);
+        for (byte[] field : fields) {
+            if (field == null) {
+                wal.putShort((short) -1);
+            } else {
+                wal.putShort((short) field.length).put(field);
+            }
+        }
+        crc.reset();
+        crc.update(wal.duplicate().position(start + 8).limit(wal.position()));
+        wal.putInt(start + 4, (int) crc.getValue());
+        // Length is written last: a record is invisible until complete
+        wal.putInt(start, length);
+        dirty = true;
+    }
+    
+    private static byte[] utf8(String value) {
+        return value == null ? null : value.getBytes(StandardCharsets.UTF_8);
+    }
+    
+    @Override
+    public synchronized void start() {
+        try {
+            Files.createDirectories(directory);
+            storeId = loadOrCreateStoreId();
+            recover();
+        } catch (IOException ex) {
+            throw new UncheckedIOException("Cannot recover user store from " + directory, ex);
+        }
+        flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "user-store-flusher");
+            thread.setDaemon(true);
+            return thread;
+        });
+        flusher.scheduleWithFixedDelay(this::flush, fsyncIntervalMs, fsyncIntervalMs, TimeUnit.MILLISECONDS);
+        snapshotter = Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "user-store-snapshot");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+    
+    @Override
+    public synchronized void stop() {
+        // A snapshot cut short is harmless, but finishing it shortens the next recovery
+        snapshotter.shutdown();
+        try {
+            snapshotter.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        flusher.shutdown();
+        flush();
+    }
+    
+    @Override
+    public boolean isRunning() { return flusher != null && !flusher.isShutdown(); }
+    
+    // Lower than the web server's phases: recovered before traffic is
+    // accepted, and flushed only after in-flight requests have drained
+    @Override
+    public int getPhase() { return SmartLifecycle.DEFAULT_PHASE - 4096; }
+    
+    // Locked so the snapshot thread's flush waits for one already running
+    private void flush() {
+        synchronized (sealed) {
+            MappedByteBuffer full;
+            while ((full = sealed.poll()) != null) {
+                full.force();
+            }
+            if (dirty) {
+                dirty = false;
+                wal.force();
+            }
+        }
+    }
+    
+    private String loadOrCreateStoreId() throws IOException {
+        Path idFile = directory.resolve("store.id");
+        if (Files.exists(idFile)) {
+            return Files.readString(idFile).trim();
+        }
+        String id = UUID.randomUUID().toString().substring(0, 8);
+        Path temp = directory.resolve("store.id.tmp");
+        Files.writeString(temp, id);
+        Files.move(temp, idFile, StandardCopyOption.ATOMIC_MOVE);
+        return id;
+    }
+    
+    private void recover() throws IOException {
+        long started = System.nanoTime();
+        Path snapshotFile = directory.resolve("users.snapshot");
+        if (Files.exists(snapshotFile)) {
+            loadSnapshot(snapshotFile);
+        }
+        long snapshotSequence = sequence;
+        generation = sequence;
+        wal = map(directory.resolve("wal-" + generation + ".log"));
+        int replayed = replay(wal);
+        // Rotations whose snapshot never finished leave later generations,
+        // each named after the sequence its predecessor ended at
+        Path next;
+        while (sequence != generation
+                && Files.exists(next = directory.resolve("wal-" + sequence + ".log"))) {
+            generation = sequence;
+            wal = map(next);
+            replayed += replay(wal);
+        }
+        // Left behind by a crash between a snapshot's rename and its cleanup
+        deleteLogsBefore(snapshotSequence);
+        logger.info("Recovered {} users ({} log records) in {} ms", users.size(), replayed,
+            (System.nanoTime() - started) / 1_000_000);
+    }
+    
+    // Snapshot layout: int magic | long sequence | long nextId | int count
+    //                  | count x (name | email | department | long id)
+    // Strings are decoded through one scratch array instead of a byte[] per
+    // field, and each department name is shared, so a 1M-user restart
+    // allocates little beyond the users themselves.
+    private void loadSnapshot(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            MappedByteBuffer data = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (data.getInt() != SNAPSHOT_MAGIC) {
+                throw new IOException("Not a user store snapshot: " + file);
+            }
+            sequence = data.getLong();
+            nextId = data.getLong();
+            int count = data.getInt();
+            byte[] scratch = new byte[Short.MAX_VALUE];
+            Map<String, String> departments = new HashMap<>();
+            for (int i = 0; i < count; i++) {
+                String name = readString(data, scratch);
+                String email = readString(data, scratch);
+                String department = readString(data, scratch);
+                if (department != null) {
+                    department = departments.computeIfAbsent(department, d -> d);
+                }
+                long id = data.getLong();
+                if (id >= nextId) {
+                    // Created after the rotation (the snapshot is fuzzy, and
+                    // in id order): the log replays these anyway
+                    break;
+                }
+                User user = new User(name, email, department);
+                user.setId(id);
+                users.put(user.getId(), user);
+            }
+        }
+    }
+    
+    private int replay(ByteBuffer log) {
+        int replayed = 0;
+        byte[] scratch = new byte[Short.MAX_VALUE];
+        while (log.remaining() >= 8) {
+            int start = log.position();
+            int length = log.getInt();
+            int expected = log.getInt();
+            if (length <= 0 || length > log.remaining()) {
+                log.position(start);
+                break;
+            }
+            crc.reset();
+            crc.update(log.duplicate().limit(log.position() + length));
+            long seq = log.getLong();
+            if ((int) crc.getValue() != expected || seq != sequence + 1) {
+                log.position(start);
+                break;
+            }
+            byte op = log.get();
+            long id = log.getLong();
+            if (op == DELETE) {
+                users.remove(id);
+            } else {
+                User user = new User(readString(log, scratch), readString(log, scratch), readString(log, scratch));
+                user.setId(id);
+                users.put(user.getId(), user);
+                // Same rule as put(): INSERTs and creating PUTs both advance it
+                nextId = Math.max(nextId, id + 1);
+            }
+            sequence = seq;
+            replayed++;
+        }
+        return replayed;
+    }
+    
+    private static String readString(ByteBuffer buffer, byte[] scratch) {
+        short length = buffer.getShort();
+        if (length < 0) {
+            return null;
+        }
+        buffer.get(scratch, 0, length);
+        return new String(scratch, 0, length, StandardCharsets.UTF_8);
+    }
+    
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = utf8(value);
+        if (bytes == null) {
+            out.writeShort(-1);
+        } else {
+            out.writeShort(bytes.length);
+            out.write(bytes);
+        }
+    }
+    
+    // Called under the store lock when the log is full. Only switches the
+    // log; the snapshot is written off the request thread.
+    private void rotate() throws IOException {
+        long upTo = sequence;
+        long nextIdAtRotation = nextId;
+        sealed.add(wal);
+        generation = sequence;
+        wal = map(directory.resolve("wal-" + generation + ".log"));
+        snapshotter.execute(() -> {
+            try {
+                snapshot(upTo, nextIdAtRotation);
+            } catch (IOException | RuntimeException ex) {
+                // Recovery still works from the older snapshot and the log
+                // chain; it just replays more
+                logger.error("User store snapshot at sequence {} failed", upTo, ex);
+            }
+        });
+    }
+    
+    // Runs on the snapshot thread while writers carry on. Anything the map
+    // iteration saw was appended to the log before it reached the map, so
+    // forcing the log before the rename means the snapshot never holds a
+    // write that a crash could take out of the log.
+    private void snapshot(long upTo, long nextIdAtRotation) throws IOException {
+        Path temp = directory.resolve("users.snapshot.tmp");
+        try (FileOutputStream file = new FileOutputStream(temp.toFile());
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(file, 1 << 20))) {
+            out.writeInt(SNAPSHOT_MAGIC);
+            out.writeLong(upTo);
+            out.writeLong(nextIdAtRotation);
+            // Count is patched in once the iteration is done
+            out.writeInt(0);
+            int count = 0;
+            for (User user : users.values()) {
+                writeString(out, user.getName());
+                writeString(out, user.getEmail());
+                writeString(out, user.getDepartment());
+                out.writeLong(user.getId());
+                count++;
+            }
+            out.flush();
+            file.getChannel().write(ByteBuffer.allocate(4).putInt(0, count), 20);
+            file.getFD().sync();
+            flush();
+            // The current generation too, even if the flusher just cleared 'dirty'
+            wal.force();
+            logger.info("Snapshot of {} users written at sequence {}", count, upTo);
+        }
+        Files.move(temp, directory.resolve("users.snapshot"),
+            StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        
+        // Everything up to 'upTo' is now in the snapshot
+        deleteLogsBefore(upTo);
+    }
+    
+    private void deleteLogsBefore(long generation) throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                String name = file.getFileName().toString();
+                if (name.startsWith("wal-") && name.endsWith(".log")
+                        && Long.parseLong(name.substring(4, name.length() - 4)) < generation) {
+                    Files.delete(file);
+                }
+            }
+        }
+    }
+    
+    private MappedByteBuffer map(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            return channel.map(FileChannel.MapMode.READ_WRITE, 0, walBytes);
+        }
+    }
+}
+
+// Crash-consistency checks, each in its own subdirectory:
+//   torn     - torn write at the log tail; recovery keeps every complete record
+//   rotation - a 4 KB log forces repeated snapshots and log rotations, then the
+//              process "crashes" (no stop(), so no final flush)
+//   lagging  - crash after a rotation whose snapshot never finished; recovery
+//              replays the chain of log generations
+//   million  - 1M users; no insert waits for a snapshot, and the restart
+//              takes under a second
+// Run: java -Xms1g UserStoreRecoveryCheck <empty-directory>
+// (size the heap for the users up front, as for the pod; a default-sized
+//  heap spends most of the restart growing and copying the young generation)
+public class UserStoreRecoveryCheck {
+    
+    public static void main(String[] args) throws Exception {
+        checkTornTail(Paths.get(args[0], "torn").toString());
+        checkSnapshotRotation(Paths.get(args[0], "rotation").toString());
+        checkUnfinishedSnapshot(Paths.get(args[0], "lagging").toString());
+        checkMillionUserRestart(Paths.get(args[0], "million").toString());
+        System.out.println("User store recovery checks passed");
+    }
+    
+    private static void checkTornTail(String dir) throws Exception {
+        UserStore store = new UserStore(dir, 4096, 10);
+        store.start();
+        for (int i = 0; i < 60; i++) {
+            store.insert(new User("User " + i, "user" + i + "@test", "QA"));
+        }
+        store.put(withId(new User("Renamed", "renamed@test", "QA"), 3L));
+        store.delete(5L);
+        store.stop();
+        
+        // Torn write: a record header with garbage behind it at the log tail
+        Path log;
+        try (Stream<Path> files = Files.list(Paths.get(dir))) {
+            log = files.filter(f -> f.getFileName().toString().startsWith("wal-")).findFirst().get();
+        }
+        try (FileChannel channel = FileChannel.open(log, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            ByteBuffer data = ByteBuffer.allocate(4096);
+            channel.read(data, 0);
+            data.flip();
+            int end = 0;
+            while (data.getInt(end) > 0) {
+                end += 8 + data.getInt(end);
+            }
+            channel.write(ByteBuffer.wrap(new byte[] {0, 0, 0, 40, 1, 2, 3, 4, 5}), end);
+        }
+        
+        UserStore recovered = new UserStore(dir, 4096, 10);
+        recovered.start();
+        check(recovered.findAll().size() == 59, "59 users after recovery");
+        check("Renamed".equals(recovered.findById(3L).getName()), "update replayed");
+        check(recovered.findById(5L) == null, "delete replayed");
+        
+        // New writes continue the id sequence after the torn tail
+        User next = new User("Next", "next@test", "QA");
+        recovered.insert(next);
+        check(next.getId() == 61L, "next id continues at 61");
+        
+        // A PUT that creates an id must push nextId past it
+        recovered.put(withId(new User("Put", "put@test", "QA"), 62L));
+        User afterPut = new User("AfterPut", "afterput@test", "QA");
+        recovered.insert(afterPut);
+        check(afterPut.getId() == 63L, "POST after creating PUT does not reuse its id");
+        recovered.stop();
+        
+        UserStore reopened = new UserStore(dir, 4096, 10);
+        reopened.start();
+        User afterRestart = new User("AfterRestart", "afterrestart@test", "QA");
+        reopened.insert(afterRestart);
+        check(afterRestart.getId() == 64L, "replay advances nextId past PUT-created ids");
+        reopened.stop();
+    }
+    
+    private static void checkSnapshotRotation(String dir) throws Exception {
+        UserStore store = new UserStore(dir, 4096, 10);
+        store.start();
+        // ~55 bytes per record: 500 inserts rotate the 4 KB log several times
+        for (int i = 0; i < 500; i++) {
+            store.insert(new User("User " + i, "user" + i + "@test", "QA"));
+        }
+        for (long id = 1; id <= 500; id += 7) {
+            store.delete(id);
+        }
+        store.put(withId(new User("Renamed", "renamed@test", "QA"), 2L));
+        // Crash: abandon the store without stop(), once the background
+        // snapshots have caught up (two stores must not share a directory)
+        awaitSnapshots(dir);
+        
+        check(Files.exists(Paths.get(dir, "users.snapshot")), "snapshot written when the log filled");
+        check(walFiles(dir) == 1, "rotated logs deleted, one live log left");
+        
+        UserStore recovered = new UserStore(dir, 4096, 10);
+        recovered.start();
+        check(recovered.findAll().size() == 500 - 72, "snapshot + log tail give every surviving user");
+        check(recovered.findById(1L) == null && recovered.findById(8L) == null, "deletes survive rotation");
+        check("Renamed".equals(recovered.findById(2L).getName()), "update after last snapshot replayed");
+        check(recovered.getSequence() == store.getSequence(), "sequence continues from before the crash");
+        User next = new User("Next", "next@test", "QA");
+        recovered.insert(next);
+        check(next.getId() == 501L, "next id continues at 501");
+        recovered.stop();
+    }
+    
+    private static void checkUnfinishedSnapshot(String dir) throws Exception {
+        UserStore store = new UserStore(dir, 4096, 10);
+        store.start();
+        // ~80 records fill the 4 KB log: one rotation, then wait for its snapshot
+        for (int i = 0; i < 100; i++) {
+            store.insert(new User("User " + i, "user" + i + "@test", "QA"));
+        }
+        awaitSnapshots(dir);
+        // Hard links keep the files when the store deletes or replaces them,
+        // and the log link still sees every record appended after this point
+        Path saved = Files.createDirectories(Paths.get(dir + "-saved"));
+        Path snapshotLog;
+        try (Stream<Path> files = Files.list(Paths.get(dir))) {
+            snapshotLog = files.filter(f -> f.getFileName().toString().startsWith("wal-")).findFirst().get();
+        }
+        Files.createLink(saved.resolve("users.snapshot"), Paths.get(dir, "users.snapshot"));
+        Files.createLink(saved.resolve(snapshotLog.getFileName()), snapshotLog);
+        
+        // One more rotation; its snapshot completes and deletes the older log
+        for (int i = 100; i < 200; i++) {
+            store.insert(new User("User " + i, "user" + i + "@test", "QA"));
+        }
+        store.stop();
+        awaitSnapshots(dir);
+        
+        // Put back the older snapshot and its log: as if the crash came
+        // before the newer snapshot's rename
+        Files.copy(saved.resolve("users.snapshot"), Paths.get(dir, "users.snapshot"),
+            StandardCopyOption.REPLACE_EXISTING);
+        Files.copy(saved.resolve(snapshotLog.getFileName()), snapshotLog);
+        check(walFiles(dir) == 2, "two log generations on disk");
+        
+        UserStore recovered = new UserStore(dir, 4096, 10);
+        recovered.start();
+        check(recovered.findAll().size() == 200, "older snapshot + both generations give every user");
+        check(recovered.getSequence() == store.getSequence(), "sequence continues from before the crash");
+        User next = new User("Next", "next@test", "QA");
+        recovered.insert(next);
+        check(next.getId() == 201L, "next id continues at 201");
+        recovered.stop();
+    }
+    
+    private static void checkMillionUserRestart(String dir) throws Exception {
+        writeMillionUsers(dir);
+        // The writer's users are unreachable now; collect them so the timed
+        // restart starts from an empty heap, like a fresh process would
+        System.gc();
+        
+        long start = System.nanoTime();
+        UserStore recovered = new UserStore(dir, 32 << 20, 10);
+        recovered.start();
+        long elapsedMs = (System.nanoTime() - start) / 1_000_000;
+        System.out.printf("     1M-user restart took %d ms%n", elapsedMs);
+        check(recovered.findAll().size() == 1_000_000, "1M users recovered");
+        check(elapsedMs < 1_000, "1M-user restart under one second");
+        recovered.stop();
+    }
+    
+    private static void writeMillionUsers(String dir) {
+        // 32 MB of log: rotates (and snapshots in the background) at ~500k users
+        UserStore store = new UserStore(dir, 32 << 20, 10);
+        store.start();
+        // GC pauses with a million live users can reach hundreds of ms on
+        // their own, so each insert's time excludes collections during it
+        List<GarbageCollectorMXBean> collectors = ManagementFactory.getGarbageCollectorMXBeans();
+        long slowestMs = 0;
+        for (int i = 0; i < 1_000_000; i++) {
+            User user = new User("User " + i, "user" + i + "@example.com", "Engineering");
+            long gcBefore = gcMillis(collectors);
+            long started = System.nanoTime();
+            store.insert(user);
+            long elapsedMs = (System.nanoTime() - started) / 1_000_000;
+            slowestMs = Math.max(slowestMs, elapsedMs - (gcMillis(collectors) - gcBefore));
+        }
+        store.stop();
+        System.out.printf("     slowest insert took %d ms (GC excluded)%n", slowestMs);
+        // A snapshot under the store lock took ~450 ms at this size
+        check(slowestMs < 50, "no insert waits for a snapshot");
+    }
+    
+    private static long gcMillis(List<GarbageCollectorMXBean> collectors) {
+        long total = 0;
+        for (GarbageCollectorMXBean collector : collectors) {
+            total += collector.getCollectionTime();
+        }
+        return total;
+    }
+    
+    private static long walFiles(String dir) throws IOException {
+        try (Stream<Path> files = Files.list(Paths.get(dir))) {
+            return files.filter(f -> f.getFileName().toString().startsWith("wal-")).count();
+        }
+    }
+    
+    // Snapshots run in the background; they have caught up once a single
+    // log generation is left
+    private static void awaitSnapshots(String dir) throws Exception {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+        while (walFiles(dir) > 1 || !Files.exists(Paths.get(dir, "users.snapshot"))) {
+            if (System.nanoTime() > deadline) {
+                throw new IllegalStateException("Recovery check failed: snapshots did not catch up");
+            }
+            Thread.sleep(10);
+        }
+    }
+    
+    private static User withId(User user, Long id) {
+        user.setId(id);
+        return user;
+    }
+    
+    private static void check(boolean condition, String description) {
+        if (!condition) {
+            throw new IllegalStateException("Recovery check failed: " + description);
+        }
+        System.out.println("OK  " + description);
+    }
+}
+
+/**
+ * Example 16: Scatter-Gather Department Analytics
+ * Learn: mergeable aggregates, CompletableFuture fan-out, timeouts, partial results
+ *
+ * Each node (pod/schema) reduces its own rows to one DepartmentPartial per
+ * department. Partials are small and associative - merging two gives the
+ * same result as aggregating both row sets together - so the coordinator
+ * only moves a few KB per node no matter how many employees each holds.
+ */
+
+// Mergeable per-department aggregate: count, sum, min/max, top-K earners
+// and a log-bucket salary sketch for approximate percentiles
+public class DepartmentPartial {
+    
+    public static final int TOP_K = 5;
+    // Bucket i holds salaries in [1.05^i, 1.05^(i+1)): ~5% relative error
+    private static final double BUCKET_BASE = Math.log(1.05);
+    private static final int BUCKETS = 320;
+    
+    private long count;
+    private double sum;
+    private double min = Double.POSITIVE_INFINITY;
+    private double max = Double.NEGATIVE_INFINITY;
+    private List<Earner> topEarners = new ArrayList<>();
+    private long[] sketch = new long[BUCKETS];
+    
+    public static class Earner {
+        private String name;
+        private double salary;
+        
+        public Earner() {}
+        
+        public Earner(String name, double salary) {
+            this.name = name;
+            this.salary = salary;
+        }
+        
+        public String getName() { return name; }
+        public void setName(String name) { this.name = name; }
+        
+        public double getSalary() { return salary; }
+        public void setSalary(double salary) { this.salary = salary; }
+    }
+    
+    public void add(String name, double salary) {
+        count++;
+        sum += salary;
+        min = Math.min(min, salary);
+        max = Math.max(max, salary);
+        sketch[bucketOf(salary)]++;
+        offerTopEarner(new Earner(name, salary));
+    }
+    
+    // Folds 'other' into this partial; 'other' is left untouched
+    public DepartmentPartial merge(DepartmentPartial other) {
+        count += other.count;
+        sum += other.sum;
+        min = Math.min(min, other.min);
+        max = Math.max(max, other.max);
+        for (int i = 0; i < BUCKETS; i++) {
+            sketch[i] += other.sketch[i];
+        }
+        other.topEarners.forEach(this::offerTopEarner);
+        return this;
+    }
+    
+    private void offerTopEarner(Earner earner) {
+        topEarners.add(earner);
+        topEarners.sort(Comparator.comparingDouble(Earner::getSalary).reversed());
+        if (topEarners.size() > TOP_K) {
+            topEarners.remove(TOP_K);
+        }
+    }
+    
+    public double getAverage() { return count == 0 ? 0 : sum / count; }
+    
+    // Approximate percentile (0-100) from the sketch: lower bound of the bucket
+    public double percentile(double percentile) {
+        long target = (long) Math.ceil(count * percentile / 100.0);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += sketch[i];
+            if (seen >= target && seen > 0) {
+                return Math.exp(i * BUCKET_BASE);
+            }
+        }
+        return max;
+    }
+    
+    private static int bucketOf(double salary) {
+        int bucket = salary < 1 ? 0 : (int) (Math.log(salary) / BUCKET_BASE);
+        return Math.min(bucket, BUCKETS - 1);
+    }
+    
+    // Getters and Setters (used for JSON transport between nodes)
+    public long getCount() { return count; }
+    public void setCount(long count) { this.count = count; }
+    
+    public double getSum() { return sum; }
+    public void setSum(double sum) { this.sum = sum; }
+    
+    public double getMin() { return min; }
+    public void setMin(double min) { this.min = min; }
+    
+    public double getMax() { return max; }
+    public void setMax(double max) { this.max = max; }
+    
+    public List<Earner> getTopEarners() { return topEarners; }
+    public void setTopEarners(List<Earner> topEarners) { this.topEarners = topEarners; }
+    
+    public long[] getSketch() { return sketch; }
+    public void setSketch(long[] sketch) { this.sketch = sketch; }
+}
+
+// Node-local side: one pass over this node's rows, no entities loaded
+@Service
+public class DepartmentPartialAggregator {
+    
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final DepartmentDirectory departments;
+    
+    public DepartmentPartialAggregator(DataSource dataSource, PlatformTransactionManager transactionManager,
+                                       DepartmentDirectory departments) {
+        this.jdbcTemplate = new JdbcTemplate(dataSource);
+        this.jdbcTemplate.setFetchSize(1_000);
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.transactionTemplate.setReadOnly(true);
+        this.departments = departments;
+    }
+    
+    // Groups on the int key; names are resolved once per department at the end.
+    // PostgreSQL only streams with a fetch size inside a transaction - under
+    // autocommit the driver buffers the whole result set in memory
+    public Map<String, DepartmentPartial> computePartials() {
+        Map<Integer, DepartmentPartial> byId = new HashMap<>();
+        transactionTemplate.executeWithoutResult(status -> jdbcTemplate.query(
+            "SELECT department_id, name, salary FROM employees", (RowCallbackHandler) rs ->
+                byId.computeIfAbsent(rs.getInt(1), id -> new DepartmentPartial())
+                    .add(rs.getString(2), rs.getDouble(3))));
+        
+        Map<String, DepartmentPartial> partials = new HashMap<>();
+        byId.forEach((id, partial) -> partials.put(departments.nameOf(id), partial));
+        return partials;
+    }
+}
+
+// Pluggable transport: how the coordinator reaches a node
+public interface AnalyticsTransport {
+    CompletableFuture<Map<String, DepartmentPartial>> fetchPartials(String nodeId);
+}
+
+// In-process stand-in: nodes are local aggregators keyed by id
+public class LoopbackAnalyticsTransport implements AnalyticsTransport {
+    
+    private final Map<String, Supplier<Map<String, DepartmentPartial>>> nodes;
+    private final Executor executor;
+    
+    public LoopbackAnalyticsTransport(Map<String, Supplier<Map<String, DepartmentPartial>>> nodes,
+                                      Executor executor) {
+        this.nodes = nodes;
+        this.executor = executor;
+    }
+    
+    @Override
+    public CompletableFuture<Map<String, DepartmentPartial>> fetchPartials(String nodeId) {
+        Supplier<Map<String, DepartmentPartial>> node = nodes.get(nodeId);
+        if (node == null) {
+            return CompletableFuture.failedFuture(new IllegalArgumentException("Unknown node: " + nodeId));
+        }
+        return CompletableFuture.supplyAsync(node, executor);
+    }
+}
+
+// Remote nodes: GET http://<node>/api/employees/analytics/partials
+public class HttpAnalyticsTransport implements AnalyticsTransport {
+    
+    private static final TypeReference<Map<String, DepartmentPartial>> PARTIALS = 
+        new TypeReference<Map<String, DepartmentPartial>>() {};
+    
+    private final HttpClient client;
+    private final ObjectMapper objectMapper;
+    
+    public HttpAnalyticsTransport(HttpClient client, ObjectMapper objectMapper) {
+        this.client = client;
+        this.objectMapper = objectMapper;
+    }
+    
+    @Override
+    public CompletableFuture<Map<String, DepartmentPartial>> fetchPartials(String nodeId) {
+        HttpRequest request = HttpRequest.newBuilder(
+            URI.create("http://" + nodeId + "/api/employees/analytics/partials")).build();
+        return client.sendAsync(request, HttpResponse.BodyHandlers.ofByteArray())
+            .thenApply(response -> {
+                if (response.statusCode() != 200) {
+                    throw new IllegalStateException("Node " + nodeId + " answered " + response.statusCode());
+                }
+                try {
+                    return objectMapper.readValue(response.body(), PARTIALS);
+                } catch (IOException ex) {
+                    throw new UncheckedIOException(ex);
+                }
+            });
+    }
+}
+
+// Org-wide result plus which nodes contributed; 'complete' is false when
+// any node failed or timed out, so callers can label the report as partial
+public class OrgDepartmentReport {
+    
+    private final Map<String, DepartmentPartial> departments;
+    private final List<String> respondedNodes;
+    private final Map<String, String> failedNodes;
+    
+    public OrgDepartmentReport(Map<String, DepartmentPartial> departments, List<String> respondedNodes,
+                               Map<String, String> failedNodes) {
+        this.departments = departments;
+        this.respondedNodes = respondedNodes;
+        this.failedNodes = failedNodes;
+    }
+    
+    public Map<String, DepartmentPartial> getDepartments() { return departments; }
+    public List<String> getRespondedNodes() { return respondedNodes; }
+    public Map<String, String> getFailedNodes() { return failedNodes; }
+    public boolean isComplete() { return failedNodes.isEmpty(); }
+}
+
+public class ScatterGatherCoordinator {
+    
+    private final AnalyticsTransport transport;
+    private final List<String> nodeIds;
+    private final Duration timeout;
+    private final Logger logger = LoggerFactory.getLogger(ScatterGatherCoordinator.class);
+    
+    public ScatterGatherCoordinator(AnalyticsTransport transport, List<String> nodeIds, Duration timeout) {
+        this.transport = transport;
+        this.nodeIds = nodeIds;
+        this.timeout = timeout;
+    }
+    
+    public OrgDepartmentReport departmentReport() {
+        // Scatter: every node is asked at once, each with its own deadline
+        Map<String, CompletableFuture<Map<String, DepartmentPartial>>> pending = new LinkedHashMap<>();
+        for (String nodeId : nodeIds) {
+            pending.put(nodeId, transport.fetchPartials(nodeId)
+                .orTimeout(timeout.toMillis(), TimeUnit.MILLISECONDS));
+        }
+        
+        // Gather: merge whatever arrived; failures are reported, not fatal.
+        // Each department gets a fresh accumulator, so no node's partial
+        // (possibly cached or shared by a loopback node) is modified.
+        Map<String, DepartmentPartial> merged = new TreeMap<>();
+        List<String> responded = new ArrayList<>();
+        Map<String, String> failed = new LinkedHashMap<>();
+        pending.forEach((nodeId, future) -> {
+            try {
+                future.join().forEach((department, partial) ->
+                    merged.computeIfAbsent(department, d -> new DepartmentPartial()).merge(partial));
+                responded.add(nodeId);
+            } catch (CompletionException ex) {
+                Throwable cause = ex.getCause() != null ? ex.getCause() : ex;
+                String reason = cause instanceof TimeoutException ? "timed out" : cause.toString();
+                logger.warn("Node {} left out of department report: {}", nodeId, reason);
+                failed.put(nodeId, reason);
+            }
+        });
+        
+        return new OrgDepartmentReport(merged, responded, failed);
+    }
+}
+
+// Peers are listed as host:port, e.g. app.analytics.nodes=emp-0:8080,emp-1:8080
+@Configuration
+public class AnalyticsConfig {
+    
+    @Bean
+    public ScatterGatherCoordinator scatterGatherCoordinator(
+            ObjectMapper objectMapper,
+            @Value("${app.analytics.nodes:localhost:8080}") List<String> nodes,
+            @Value("${app.analytics.timeout-ms:2000}") long timeoutMs) {
+        HttpClient client = HttpClient.newBuilder()
+            .connectTimeout(Duration.ofMillis(timeoutMs))
+            .build();
+        return new ScatterGatherCoordinator(new HttpAnalyticsTransport(client, objectMapper),
+            nodes, Duration.ofMillis(timeoutMs));
+    }
+}
+
+// Scatter-gather check over in-process nodes: three nodes answer, one is
+// slower than the deadline. The report must merge exactly the three that
+// answered, name the slow one, and leave every node's partials unchanged.
+// Run: java AnalyticsScatterGatherCheck
+public class AnalyticsScatterGatherCheck {
+    
+    public static void main(String[] args) {
+        Map<String, DepartmentPartial> east = partials("Engineering", 100_000, 120_000, 90_000);
+        Map<String, DepartmentPartial> west = partials("Engineering", 150_000, 80_000);
+        Map<String, DepartmentPartial> south = partials("Sales", 60_000, 70_000);
+        
+        Map<String, Supplier<Map<String, DepartmentPartial>>> nodes = new LinkedHashMap<>();
+        nodes.put("east", () -> east);
+        nodes.put("west", () -> west);
+        nodes.put("south", () -> south);
+        nodes.put("slow", () -> {
+            try {
+                Thread.sleep(5_000);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+            return partials("Sales", 1_000_000);
+        });
+        
+        ExecutorService executor = Executors.newCachedThreadPool();
+        try {
+            ScatterGatherCoordinator coordinator = new ScatterGatherCoordinator(
+                new LoopbackAnalyticsTransport(nodes, executor),
+                new ArrayList<>(nodes.keySet()), Duration.ofMillis(200));
+            
+            OrgDepartmentReport report = coordinator.departmentReport();
+            DepartmentPartial engineering = report.getDepartments().get("Engineering");
+            DepartmentPartial sales = report.getDepartments().get("Sales");
+            check(engineering.getCount() == 5 && engineering.getSum() == 540_000, "Engineering merged from two nodes");
+            check(engineering.getMin() == 80_000 && engineering.getMax() == 150_000, "min/max merged");
+            check(engineering.getTopEarners().get(0).getSalary() == 150_000, "top earner comes from the other node");
+            check(sales.getCount() == 2 && sales.getMax() == 70_000, "slow node's rows left out");
+            check(report.getRespondedNodes().equals(Arrays.asList("east", "west", "south")), "three nodes responded");
+            check("timed out".equals(report.getFailedNodes().get("slow")) && !report.isComplete(),
+                "slow node reported as timed out");
+            check(east.get("Engineering").getCount() == 3, "node partials not modified by the merge");
+            
+            // Same nodes, same answer: nothing accumulated across reports
+            OrgDepartmentReport again = coordinator.departmentReport();
+            check(again.getDepartments().get("Engineering").getCount() == 5, "second report matches the first");
+        } finally {
+            executor.shutdownNow();
+        }
+        System.out.println("Scatter-gather checks passed");
+    }
+    
+    private static Map<String, DepartmentPartial> partials(String department, double... salaries) {
+        DepartmentPartial partial = new DepartmentPartial();
+        for (double salary : salaries) {
+            partial.add(department + " " + (long) salary, salary);
+        }
+        Map<String, DepartmentPartial> partials = new HashMap<>();
+        partials.put(department, partial);
+        return partials;
+    }
+    
+    private static void check(boolean condition, String description) {
+        if (!condition) {
+            throw new IllegalStateException("Scatter-gather check failed: " + description);
+        }
+        System.out.println("OK  " + description);
+    }
+}
+
+/**
+ * Example 17: Department Dimension
+ * Learn: AttributeConverter, dimension tables, interning caches
+ *
+ * Employee.department stays a String in Java, but the column is an int
+ * department_id pointing at a small departments table. The converter maps
+ * names to ids on the way in, so findByDepartment, giveDepartmentRaise and
+ * the GROUP BY e.department query all compare and group on the int column.
+ * On the way out it returns the directory's canonical String, so every
+ * loaded entity in the same department shares one instance.
+ *
+ * Only entity writes create departments (EmployeeService registers the name
+ * first); a query for an unknown name matches nothing. Existing databases are
+ * moved over by department-dimension-migration.sql, next to this file.
+ */
+
+@Entity
+@Table(name = "departments")
+@Immutable
+public class Department {
+    
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Integer id;
+    
+    @Column(nullable = false, unique = true, length = 50)
+    private String name;
+    
+    public Integer getId() { return id; }
+    public String getName() { return name; }
+}
+
+// Process-wide name <-> id cache. Departments are few and almost never
+// change, so lookups are a map hit or an array index; a miss goes to the DB.
+@Component
+public class DepartmentDirectory {
+    
+    private final JdbcTemplate jdbcTemplate;
+    // Resolved on first use: the transaction manager needs the
+    // EntityManagerFactory, which needs this directory for the converter
+    private final ObjectProvider<PlatformTransactionManager> transactionManager;
+    private final int maxDepartments;
+    private final ConcurrentHashMap<String, Integer> idsByName = new ConcurrentHashMap<>();
+    // Copy-on-write, indexed by id; readers never lock
+    private volatile String[] namesById = new String[0];
+    
+    public DepartmentDirectory(DataSource dataSource, ObjectProvider<PlatformTransactionManager> transactionManager,
+                               @Value("${app.departments.max:1000}") int maxDepartments) {
+        this.jdbcTemplate = new JdbcTemplate(dataSource);
+        this.transactionManager = transactionManager;
+        this.maxDepartments = maxDepartments;
+    }
+    
+    // Returns null for a department that has never been stored. Only
+    // committed rows are cached: ids are registered from a SELECT, never
+    // from an INSERT that could still roll back.
+    public Integer findId(String name) {
+        Integer id = idsByName.get(name);
+        if (id == null) {
+            List<Integer> ids = jdbcTemplate.queryForList(
+                "SELECT id FROM departments WHERE name = ?", Integer.class, name);
+            if (!ids.isEmpty()) {
+                id = ids.get(0);
+                register(id, name);
+            }
+        }
+        return id;
+    }
+    
+    // Like findId, but creates the department on first use. For entity writes
+    // only, and called before the write's own transaction opens: the INSERT
+    // takes a pooled connection of its own, and a caller already holding one
+    // while it waits can exhaust the pool. Its own transaction also means a
+    // caller's rollback cannot strand a cached id, and a duplicate key cannot
+    // abort the caller's transaction (PostgreSQL would).
+    public int idOf(String name) {
+        // Cache hits, nearly every call, take no lock
+        Integer id = findId(name);
+        return id != null ? id : create(name);
+    }
+    
+    private synchronized int create(String name) {
+        // Another thread may have created it while this one waited
+        Integer id = findId(name);
+        if (id != null) {
+            return id;
+        }
+        TransactionTemplate newTransaction = new TransactionTemplate(transactionManager.getObject());
+        newTransaction.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        try {
+            newTransaction.executeWithoutResult(status -> {
+                // Clients choose department names; keep the dimension small
+                Integer count = jdbcTemplate.queryForObject("SELECT COUNT(*) FROM departments", Integer.class);
+                if (count >= maxDepartments) {
+                    throw InvalidEmployeeException.TOO_MANY_DEPARTMENTS;
+                }
+                jdbcTemplate.update("INSERT INTO departments (name) VALUES (?)", name);
+            });
+        } catch (DuplicateKeyException ex) {
+            // Another node inserted it first; the lookup below picks it up
+        }
+        return newTransaction.execute(status -> findId(name));
+    }
+    
+    public String nameOf(int id) {
+        String[] names = namesById;
+        if (id < names.length && names[id] != null) {
+            return names[id];
+        }
+        String name = jdbcTemplate.queryForObject("SELECT name FROM departments WHERE id = ?", String.class, id);
+        return register(id, name);
+    }
+    
+    // Returns the canonical instance for this name
+    private synchronized String register(int id, String name) {
+        String[] names = namesById;
+        if (id < names.length && names[id] != null) {
+            return names[id];
+        }
+        String[] grown = Arrays.copyOf(names, Math.max(names.length, id + 1));
+        grown[id] = name;
+        idsByName.put(name, id);
+        namesById = grown;
+        return name;
+    }
+}
+
+// Hibernate instantiates this through Spring, so it can use the directory.
+// Query parameters go through it too, so it never creates a department: an
+// unknown name maps to -1, which matches no row. Writes are safe because
+// EmployeeService registers the department before saving.
+@Converter
+public class DepartmentIdConverter implements AttributeConverter<String, Integer> {
+    
+    private final DepartmentDirectory directory;
+    
+    public DepartmentIdConverter(DepartmentDirectory directory) {
+        this.directory = directory;
+    }
+    
+    @Override
+    public Integer convertToDatabaseColumn(String department) {
+        if (department == null) {
+            return null;
+        }
+        Integer id = directory.findId(department);
+        return id != null ? id : -1;
+    }
+    
+    @Override
+    public String convertToEntityAttribute(Integer departmentId) {
+        return departmentId == null ? null : directory.nameOf(departmentId);
+    }
+}
+
+/**
+ * Example 18: Version-Checked Partial Updates
+ * Learn: @Version, CriteriaUpdate, custom repository fragments, 409 Conflict
+ *
+ *   PATCH /api/employees/42   {"version": 3, "salary": 91000}
+ *   -> UPDATE employees SET salary = ?, version = 4, updated_at = ?
+ *      WHERE id = 42 AND version = 3
+ * One round trip and only the named columns. 1 row: 204 with the new ETag.
+ * 0 rows: 404 if the id does not exist, otherwise 409 (someone else wrote
+ * first - re-read and retry).
+ */
+
+// Null fields are left unchanged; version is required
+public class EmployeePatch {
+    private Long version;
+    private String name;
+    private String email;
+    private String department;
+    private Double salary;
+    
+    public Long getVersion() { return version; }
+    public void setVersion(Long version) { this.version = version; }
+    
+    public String getName() { return name; }
+    public void setName(String name) { this.name = name; }
+    
+    public String getEmail() { return email; }
+    public void setEmail(String email) { this.email = email; }
+    
+    public String getDepartment() { return department; }
+    public void setDepartment(String department) { this.department = department; }
+    
+    public Double getSalary() { return salary; }
+    public void setSalary(Double salary) { this.salary = salary; }
+}
+
+public interface EmployeeRepositoryCustom {
+    
+    // Returns the number of rows updated: 1, or 0 on missing id / stale version
+    int patch(Long id, long expectedVersion, EmployeePatch patch);
+}
+
+// Picked up by Spring Data through the "Impl" naming convention
+public class EmployeeRepositoryImpl implements EmployeeRepositoryCustom {
+    
+    @PersistenceContext
+    private EntityManager entityManager;
+    
+    @Override
+    public int patch(Long id, long expectedVersion, EmployeePatch patch) {
+        CriteriaBuilder cb = entityManager.getCriteriaBuilder();
+        CriteriaUpdate<Employee> update = cb.createCriteriaUpdate(Employee.class);
+        Root<Employee> employee = update.from(Employee.class);
+        
+        if (patch.getName() != null) {
+            update.set(employee.<String>get("name"), patch.getName());
+        }
+        if (patch.getEmail() != null) {
+            update.set(employee.<String>get("email"), patch.getEmail());
+        }
+        if (patch.getDepartment() != null) {
+            // Goes through DepartmentIdConverter; the service has already
+            // registered the department
+            update.set(employee.<String>get("department"), patch.getDepartment());
+        }
+        if (patch.getSalary() != null) {
+            update.set(employee.<Double>get("salary"), patch.getSalary());
+        }
+        // Bulk updates skip @PreUpdate, so the timestamp is set here
+        update.set(employee.<LocalDateTime>get("updatedAt"), LocalDateTime.now());
+        update.set(employee.<Long>get("version"), expectedVersion + 1);
+        update.where(
+            cb.equal(employee.get("id"), id),
+            cb.equal(employee.get("version"), expectedVersion)
+        );
+        
+        return entityManager.createQuery(update).executeUpdate();
+    }
+}
+
 /**
  * 🎯 Practice Exercises
  * 
  * Try these exercises after understanding the examples:
  * 
  * 1. Add validation annotations to Employee entity (@NotNull, @Email, etc.)
- * 2. Create a Department entity with @OneToMany relationship to Employee
+ * 2. Create a Department entity with @OneToMany relationship to Employee (Example 17 adds a lookup-only one)
  * 3. Implement caching with @Cacheable on service methods
  * 4. Add @Async methods for long-running operations
  * 5. Create custom @Conditional beans based on properties
- * 6. Implement audit logging with @EntityListeners
+ * 6. Implement audit logging with @EntityListeners (see Example 12 for a write-behind version)
  * 7. Add integration tests with @SpringBootTest
  * 8. Create health check indicators with @Component
  * 9. Implement custom property validation with @Validated
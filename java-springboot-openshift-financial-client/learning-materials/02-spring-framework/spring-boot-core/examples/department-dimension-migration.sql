@@ -0,0 +1,35 @@
+-- Example 17: move employees.department (VARCHAR) to department_id, an int
+-- key into the departments dimension. Run once, before starting the version
+-- that maps department_id (with Flyway: V2__department_dimension.sql).
+--
+-- Written for PostgreSQL. On MySQL use "id INT AUTO_INCREMENT PRIMARY KEY",
+-- "MODIFY department_id INT NOT NULL" and the multi-table UPDATE ... JOIN form.
+
+BEGIN;
+
+CREATE TABLE departments (
+    id   INTEGER GENERATED BY DEFAULT AS IDENTITY PRIMARY KEY,
+    name VARCHAR(50) NOT NULL UNIQUE
+);
+
+-- One row per department name already in use
+INSERT INTO departments (name)
+SELECT DISTINCT department FROM employees;
+
+ALTER TABLE employees ADD COLUMN department_id INTEGER;
+
+UPDATE employees e
+SET department_id = d.id
+FROM departments d
+WHERE d.name = e.department;
+
+ALTER TABLE employees ALTER COLUMN department_id SET NOT NULL;
+ALTER TABLE employees ADD CONSTRAINT fk_employees_department
+    FOREIGN KEY (department_id) REFERENCES departments (id);
+CREATE INDEX idx_employees_department ON employees (department_id);
+
+-- Older nodes still read and write the VARCHAR column: stop them before
+-- running this script
+ALTER TABLE employees DROP COLUMN department;
+
+COMMIT;
@@ -0,0 +1,8 @@
+-- Example 18: add the optimistic-locking version column to employees. Run
+-- once, before starting the version that maps Employee.version (with Flyway:
+-- V3__employee_version.sql, after department-dimension-migration.sql).
+--
+-- Existing rows start at version 0, the value a newly created row gets.
+-- Written for PostgreSQL; the statement is the same on MySQL.
+
+ALTER TABLE employees ADD COLUMN version BIGINT NOT NULL DEFAULT 0;